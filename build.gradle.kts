@@ -13,6 +13,7 @@ dependencies {
     implementation(libs.io.javalin.javalin)
     implementation(libs.com.fasterxml.jackson.core.jackson.databind)
     implementation(libs.org.openpnp.opencv)
+    implementation(libs.com.microsoft.onnxruntime.onnxruntime)
     implementation(libs.org.slf4j.slf4j.simple)
     testImplementation(libs.org.junit.jupiter.junit.jupiter)
 }
@@ -14,6 +14,13 @@ const SCAN_ERROR =
 const UPLOAD_ERROR =
 	"Wrong image upload. Double-check file type and try again.";
 const SERVER_ERROR = "Internal error. Please try again later.";
+const BUSY_ERROR = "Too many scans right now. Wait a moment and try again.";
+const PHOTO_QUALITY_ERRORS: Record<string, string> = {
+	photo_blurry: "This photo is blurry. Hold steady and try again.",
+	photo_underexposed: "This photo is too dark. Find more light and try again.",
+	photo_overexposed:
+		"This photo is too bright. Avoid direct light on the cube and try again.",
+};
 
 export type CompletionCallback = (cube: Cube, sessionId: string) => void;
 
@@ -43,13 +50,18 @@ async function scan(
 	}
 
 	if (response.status === 422) {
-		throw new Error(SCAN_ERROR);
+		const code = await response.json().catch(() => undefined);
+		throw new Error(PHOTO_QUALITY_ERRORS[code] ?? SCAN_ERROR);
 	}
 
 	if (response.status === 400) {
 		throw new Error(UPLOAD_ERROR);
 	}
 
+	if (response.status === 429 || response.status === 503) {
+		throw new Error(BUSY_ERROR);
+	}
+
 	if (response.status !== 200) {
 		throw new Error(SERVER_ERROR);
 	}
@@ -1,3 +1,4 @@
+import os
 import sys
 import typing
 
@@ -15,7 +16,9 @@ SEGMENTATION_BOUND_PADDING = 15
 def stream_to_img(stream: typing.IO[bytes]):
     buf = bytearray(stream.read())
     npbuf = np.asarray(buf, np.uint8)
-    return cv2.imdecode(npbuf, cv2.IMREAD_COLOR)
+    # Orientation is ignored so points line up with the image the server
+    # decodes from the same bytes
+    return cv2.imdecode(npbuf, cv2.IMREAD_COLOR | cv2.IMREAD_IGNORE_ORIENTATION)
 
 
 def reduce_segmentation(contour_points):
@@ -56,12 +59,18 @@ class VisionError(RuntimeError):
         super().__init__(*args)
 
 
-def find_points(img, debug):
+def scale_for_segmentation(img):
     # Rescale to constant size so the epsilon value of approxPolyDP can give
     # consistent results.
-    scaled = img_util.scale_smaller_axis(img, 480)
+    return img_util.scale_smaller_axis(img, 480)
+
+
+def find_points(img, debug):
+    scaled = scale_for_segmentation(img)
+    return find_points_in_bounds(img, scaled, models.predict_bounds(scaled), debug)
+
 
-    bounds = models.predict_bounds(scaled)
+def find_points_in_bounds(img, scaled, bounds, debug):
     if bounds is None:
         if debug:
             img_util.debug_write(scaled, "bounds")
@@ -135,11 +144,58 @@ def find_points(img, debug):
         value = rescaled[(highest + offset) % len(contour_points)]
         response[key] = value
 
-    response["center"] = center
+    response["center"] = rescale_point(center, scaled, img)
 
     return response
 
 
+class TruncatedBatchError(Exception):
+    pass
+
+
+def read_exactly(stream: typing.IO[bytes], length: int):
+    """
+    Reads until length bytes have been read, since a single read may return
+    fewer. Returns fewer only if the stream ends first.
+    """
+    chunks = []
+    remaining = length
+    while remaining > 0:
+        chunk = stream.read(remaining)
+        if not chunk:
+            break
+        chunks.append(chunk)
+        remaining -= len(chunk)
+    return b"".join(chunks)
+
+
+def read_batch(stream: typing.IO[bytes]):
+    """
+    Reads images sent as a sequence of 4-byte big-endian lengths, each
+    followed by that many bytes of encoded image. Images that can't be
+    decoded are None.
+    """
+    imgs = []
+    while True:
+        header = read_exactly(stream, 4)
+        if len(header) == 0:
+            return imgs
+        if len(header) < 4:
+            raise TruncatedBatchError("batch ends within a length")
+
+        length = int.from_bytes(header, "big")
+        data = read_exactly(stream, length)
+        if len(data) < length:
+            raise TruncatedBatchError("batch ends within an image")
+
+        buf = np.frombuffer(data, np.uint8)
+        imgs.append(cv2.imdecode(buf, cv2.IMREAD_COLOR | cv2.IMREAD_IGNORE_ORIENTATION))
+
+
+def points_to_json(points):
+    return {key: {"x": p[0], "y": p[1]} for key, p in points.items()}
+
+
 app = Flask("Segmenter")
 
 
@@ -152,8 +208,7 @@ def segment():
 
     try:
         points = find_points(img, app.debug)
-        points_dict = {key: {"x": p[0], "y": p[1]} for key, p in points.items()}
-        return jsonify(points_dict)
+        return jsonify(points_to_json(points))
 
     except VisionError as e:
         app.logger.info(e)
@@ -161,4 +216,41 @@ def segment():
     return SCAN_ERROR_RESPONSE
 
 
-app.run(debug=True)
+@app.route("/segment-batch", methods=["POST"])
+def segment_batch():
+    try:
+        imgs = read_batch(request.stream)
+    except TruncatedBatchError as e:
+        app.logger.info(e)
+        return Response("truncated batch", status=400)
+
+    if len(imgs) == 0:
+        return Response("missing or invalid photo", status=400)
+
+    # One undecodable photo fails only its own scan, like one the cube
+    # isn't found in
+    decoded = [i for i, img in enumerate(imgs) if img is not None]
+    if len(decoded) > 0:
+        # Bounds are found for the whole batch in one pass of the model
+        scaled = {i: scale_for_segmentation(imgs[i]) for i in decoded}
+        bounds = dict(zip(decoded, models.predict_bounds_batch([scaled[i] for i in decoded])))
+
+    response = []
+    for i, img in enumerate(imgs):
+        if img is None:
+            app.logger.info("image %d of batch could not be decoded", i)
+            response.append(None)
+            continue
+
+        try:
+            points = find_points_in_bounds(img, scaled[i], bounds[i], app.debug)
+            response.append(points_to_json(points))
+        except VisionError as e:
+            app.logger.info(e)
+            response.append(None)
+
+    return jsonify(response)
+
+
+# Replicas are run on different ports
+app.run(debug=True, port=int(os.environ.get("PORT", 5000)))
@@ -17,15 +17,23 @@ def predict_bounds(img) -> BoundingBox | None:
     Predicts the (minx, miny, maxx, maxy) boundary of a Rubik's cube in the
     image. Returns None if nothing was found.
     """
-    results = object_model(cv2.cvtColor(img, cv2.COLOR_BGR2RGB))
-    if len(results) == 0:
-        return
+    return predict_bounds_batch([img])[0]
 
-    if len(results[0].boxes) == 0:
-        return
 
-    bounds = results[0].boxes[0].xyxy[0]
-    return bounds.cpu().numpy().astype(np.int32).tolist()
+def predict_bounds_batch(imgs) -> list[BoundingBox | None]:
+    """
+    Same as predict_bounds, but runs every image through the model at once.
+    """
+    results = object_model([cv2.cvtColor(img, cv2.COLOR_BGR2RGB) for img in imgs])
+
+    bounds = []
+    for result in results:
+        if len(result.boxes) == 0:
+            bounds.append(None)
+        else:
+            box = result.boxes[0].xyxy[0]
+            bounds.append(box.cpu().numpy().astype(np.int32).tolist())
+    return bounds
 
 
 def predict_segmentation(img, bounds: BoundingBox):
@@ -1,15 +1,127 @@
 package sh.grover.dcubed;
 
+import ai.onnxruntime.OrtException;
 import nu.pattern.OpenCV;
+import sh.grover.dcubed.controller.SessionJournal;
 import sh.grover.dcubed.controller.SolverSessions;
+import sh.grover.dcubed.controller.vision.CachingColorIdentifier;
 import sh.grover.dcubed.controller.vision.PhotoColorIdentifier;
+import sh.grover.dcubed.controller.vision.segment.CachingCubeSegmenter;
+import sh.grover.dcubed.controller.vision.segment.BatchingCubeSegmenter;
+import sh.grover.dcubed.controller.vision.segment.ICubeSegmenter;
+import sh.grover.dcubed.controller.vision.segment.OnnxCubeSegmenter;
+import sh.grover.dcubed.controller.vision.segment.SegmenterPool;
+import sh.grover.dcubed.model.vision.PhotoQualityCheck;
+import sh.grover.dcubed.util.DebugCapture;
 import sh.grover.dcubed.view.WebServer;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
-    public static void main(String[] args) {
+
+    private static final String SEGMENTERS_ARG = "--segmenters=";
+    private static final URI DEFAULT_SEGMENTER = URI.create("http://localhost:5000/");
+    private static final int SEGMENT_BATCH_SIZE = 8;
+    private static final Duration SEGMENT_BATCH_DELAY = Duration.ofMillis(5);
+    private static final String DEBUG_SAMPLE_PERCENT_ARG = "--debug-sample-percent=";
+    private static final String MIN_SHARPNESS_ARG = "--min-sharpness=";
+    private static final String MAX_DARK_PERCENT_ARG = "--max-dark-percent=";
+    private static final String MAX_BRIGHT_PERCENT_ARG = "--max-bright-percent=";
+    private static final String ADMIN_PORT_ARG = "--admin-port=";
+    private static final int DEFAULT_ADMIN_PORT = 7071;
+    private static final int DEBUG_CAPTURE_CAPACITY = 32;
+    // Per cache. Results are a few hundred bytes, so each holds a few thousand.
+    private static final long SCAN_CACHE_BYTES = 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
         OpenCV.loadLocally();
-        var solverSessions = new SolverSessions();
-        var colorIdentifier = new PhotoColorIdentifier(false);
-        new WebServer(solverSessions, colorIdentifier);
+        var journal = new SessionJournal(Path.of("sessions.journal"));
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+
+        var solverSessions = new SolverSessions(journal);
+        var segmenter = new CachingCubeSegmenter(segmenter(args), SCAN_CACHE_BYTES);
+        var photoIdentifier = new PhotoColorIdentifier(segmenter, PhotoColorIdentifier.SamplingMode.HOMOGRAPHY, qualityCheck(args));
+        var colorIdentifier = new CachingColorIdentifier(photoIdentifier, SCAN_CACHE_BYTES);
+        new WebServer(solverSessions, colorIdentifier, debugCapture(args), true, adminPort(args));
+    }
+
+    /**
+     * Serves the admin routes on {@code --admin-port=N} of localhost
+     */
+    private static int adminPort(String[] args) {
+        var port = DEFAULT_ADMIN_PORT;
+        for (var arg : args) {
+            if (arg.startsWith(ADMIN_PORT_ARG)) {
+                port = Integer.parseInt(arg.substring(ADMIN_PORT_ARG.length()));
+            }
+        }
+        return port;
+    }
+
+    /**
+     * Captures debug images of the percentage of scans given as
+     * {@code --debug-sample-percent=N}, or of none by default
+     */
+    private static DebugCapture debugCapture(String[] args) {
+        return new DebugCapture(doubleArg(args, DEBUG_SAMPLE_PERCENT_ARG, 0), DEBUG_CAPTURE_CAPACITY);
+    }
+
+    /**
+     * Rejects photos less sharp than {@code --min-sharpness=N}, or with more
+     * than {@code --max-dark-percent=N} or {@code --max-bright-percent=N}
+     * of their pixels clipped
+     */
+    private static PhotoQualityCheck qualityCheck(String[] args) {
+        return new PhotoQualityCheck(
+                doubleArg(args, MIN_SHARPNESS_ARG, PhotoQualityCheck.DEFAULT_MIN_SHARPNESS),
+                doubleArg(args, MAX_DARK_PERCENT_ARG, PhotoQualityCheck.DEFAULT_MAX_DARK_FRACTION * 100) / 100,
+                doubleArg(args, MAX_BRIGHT_PERCENT_ARG, PhotoQualityCheck.DEFAULT_MAX_BRIGHT_FRACTION * 100) / 100
+        );
+    }
+
+    private static double doubleArg(String[] args, String prefix, double defaultValue) {
+        var value = defaultValue;
+        for (var arg : args) {
+            if (arg.startsWith(prefix)) {
+                value = Double.parseDouble(arg.substring(prefix.length()));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Segments with the Python segmenters listed as
+     * {@code --segmenters=http://host:port/,...}, batching concurrent scans,
+     * or in-process with the bundled model when started with
+     * {@code --local-segmenter}
+     */
+    static ICubeSegmenter segmenter(String[] args) throws IOException {
+        if (List.of(args).contains("--local-segmenter")) {
+            try {
+                return new OnnxCubeSegmenter(Path.of("segmenter", "best.onnx"));
+            } catch (OrtException e) {
+                throw new IOException("failed to load segmentation model", e);
+            }
+        }
+
+        var endpoints = new ArrayList<URI>();
+        for (var arg : args) {
+            if (arg.startsWith(SEGMENTERS_ARG)) {
+                for (var endpoint : arg.substring(SEGMENTERS_ARG.length()).split(",")) {
+                    endpoints.add(URI.create(endpoint));
+                }
+            }
+        }
+        if (endpoints.isEmpty()) {
+            endpoints.add(DEFAULT_SEGMENTER);
+        }
+
+        var pool = new SegmenterPool(endpoints);
+        return new BatchingCubeSegmenter(pool, SEGMENT_BATCH_SIZE, SEGMENT_BATCH_DELAY);
     }
-}
\ No newline at end of file
+}
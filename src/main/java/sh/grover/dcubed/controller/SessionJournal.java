@@ -0,0 +1,344 @@
+package sh.grover.dcubed.controller;
+
+import sh.grover.dcubed.model.Side;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind, append-only log of session merges. Every merge is stored as a
+ * fixed-size record containing the full state of the session after the merge,
+ * so only the newest revision of each session is needed to restore it. The
+ * layout of a record is:
+ * <br>
+ * {@code [uuid msb: 8][uuid lsb: 8][header: 4][revision: 4][sides: 6 * 8]}
+ * <br>
+ * The header has {@link #RECORD_PRESENT} set and the lower 6 bits hold a mask
+ * of which sides are known. It's written after the rest of the record, so a
+ * zeroed header marks the end of the log.
+ * <br>
+ * Records are appended to a memory-mapped file by a single writer thread that
+ * drains every merge queued since its last pass (group commit) and
+ * periodically forces the mapping to disk, so requests never wait on an
+ * fsync. When the log grows well past the number of live sessions, it's
+ * rewritten to hold only the newest revision of each one.
+ */
+public class SessionJournal implements AutoCloseable {
+
+    private static final Counter DROPPED = Metrics.counter("dcubed_journal_dropped_total", "Session merges that failed to be written to the journal");
+
+    private static final int RECORD_SIZE = 72;
+    private static final int HEADER_OFFSET = 16;
+    private static final int REVISION_OFFSET = 20;
+    private static final int SIDES_OFFSET = 24;
+    private static final int RECORD_PRESENT = 1 << 31;
+    private static final int SIDE_MASK = 0b111111;
+
+    private static final long MAX_CAPACITY = Integer.MAX_VALUE / RECORD_SIZE * RECORD_SIZE;
+    private static final long INITIAL_CAPACITY = RECORD_SIZE * 16384L;
+    private static final int DEFAULT_COMPACT_MIN_RECORDS = 65536;
+    private static final int MAX_PENDING = 65536;
+    private static final int MAX_BATCH = 4096;
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+
+    private final Path file;
+    private final int compactMinRecords;
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>(MAX_PENDING);
+
+    // Only touched by the writer thread once started
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long records;
+    private long nextCompactCheck;
+
+    private Supplier<? extends Collection<Entry>> liveSessions;
+    private Thread writer;
+    private volatile boolean closed;
+
+    public SessionJournal(Path file) {
+        this(file, DEFAULT_COMPACT_MIN_RECORDS);
+    }
+
+    SessionJournal(Path file, int compactMinRecords) {
+        this.file = file;
+        this.compactMinRecords = compactMinRecords;
+    }
+
+    /**
+     * Opens the log and scans it from the start, keeping the newest revision
+     * of every session. Must be called once before {@link #start}.
+     * @return The latest state of every session found in the log
+     */
+    public Collection<Entry> recover() throws IOException {
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(this.channel.size(), INITIAL_CAPACITY));
+
+        var latest = new HashMap<UUID, Entry>();
+        var offset = 0;
+        while (offset + RECORD_SIZE <= this.buffer.capacity()) {
+            var header = this.buffer.getInt(offset + HEADER_OFFSET);
+            if ((header & RECORD_PRESENT) == 0) {
+                break;
+            }
+
+            var entry = readRecord(this.buffer, offset, header);
+            var existing = latest.get(entry.sessionId());
+            if (existing == null || entry.revision() >= existing.revision()) {
+                latest.put(entry.sessionId(), entry);
+            }
+            offset += RECORD_SIZE;
+        }
+
+        this.records = offset / RECORD_SIZE;
+        this.nextCompactCheck = Math.max(this.records * 2, this.compactMinRecords);
+        return latest.values();
+    }
+
+    /**
+     * Starts the background writer.
+     * @param liveSessions Supplies the current state of every live session.
+     *                     Used to rewrite the log during compaction.
+     */
+    public void start(Supplier<? extends Collection<Entry>> liveSessions) {
+        if (this.channel == null) {
+            throw new IllegalStateException("journal must be recovered before starting");
+        }
+
+        this.liveSessions = liveSessions;
+        this.writer = Thread.ofPlatform().name("session-journal").daemon().start(this::runWriter);
+    }
+
+    /**
+     * Queues a session's state to be written. Only blocks if the writer has
+     * fallen far behind.
+     */
+    public void append(Entry entry) {
+        if (this.closed) {
+            return;
+        }
+
+        try {
+            this.pending.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.writer != null) {
+            try {
+                this.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void runWriter() {
+        var batch = new ArrayList<Entry>(MAX_BATCH);
+        var dirty = false;
+        var lastForce = System.nanoTime();
+
+        // Not interruptible on purpose- an interrupt during a FileChannel
+        // operation would close the channel. close() signals through `closed`.
+        while (!this.closed || !this.pending.isEmpty()) {
+            try {
+                var first = this.pending.poll(FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    this.pending.drainTo(batch, MAX_BATCH - 1);
+                    try {
+                        this.writeBatch(batch);
+                    } finally {
+                        batch.clear();
+                    }
+                    dirty = true;
+                }
+
+                var now = System.nanoTime();
+                if (dirty && (this.closed || now - lastForce >= TimeUnit.MILLISECONDS.toNanos(FORCE_INTERVAL_MILLIS))) {
+                    this.buffer.force();
+                    dirty = false;
+                    lastForce = now;
+                }
+
+                if (this.records >= this.nextCompactCheck) {
+                    this.compactIfSparse();
+                }
+            } catch (InterruptedException e) {
+                // Keep draining until closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (dirty) {
+            this.buffer.force();
+        }
+    }
+
+    /**
+     * Writes each entry on its own, so one that fails doesn't keep the rest
+     * of the batch from being written. Failed entries are dropped rather than
+     * retried, since a later merge of the same session supersedes them.
+     */
+    private void writeBatch(Collection<Entry> batch) {
+        var dropped = 0;
+        IOException failure = null;
+        for (var entry : batch) {
+            try {
+                this.write(entry);
+            } catch (IOException e) {
+                dropped++;
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            DROPPED.add("", dropped);
+            new IOException("session journal dropped " + dropped + " of " + batch.size() + " merges", failure).printStackTrace();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        var offset = this.records * RECORD_SIZE;
+        if (offset + RECORD_SIZE > this.buffer.capacity()) {
+            this.grow();
+        }
+
+        writeRecord(this.buffer, (int) offset, entry);
+        this.records++;
+    }
+
+    private void grow() throws IOException {
+        if (this.buffer.capacity() >= MAX_CAPACITY) {
+            this.compact();
+            if ((this.records + 1) * RECORD_SIZE > this.buffer.capacity()) {
+                throw new IOException("session journal is full");
+            }
+            return;
+        }
+
+        var capacity = Math.min(this.buffer.capacity() * 2L, MAX_CAPACITY);
+        this.buffer.force();
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void compactIfSparse() throws IOException {
+        try {
+            var live = this.liveSessions.get();
+            if (this.records > live.size() * 2L) {
+                this.compact(live);
+            }
+        } finally {
+            // Also after a failure, so it isn't retried on every pass
+            this.nextCompactCheck = Math.max(this.records * 2, this.compactMinRecords);
+        }
+    }
+
+    private void compact() throws IOException {
+        this.compact(this.liveSessions.get());
+    }
+
+    /**
+     * Writes the given sessions to a new log and atomically swaps it in. Merges
+     * still waiting in the queue may already be reflected in {@code live}, but
+     * writing them again is harmless since recovery keeps the newest revision.
+     * If the sessions don't all fit, the current log is kept instead.
+     */
+    private void compact(Collection<Entry> live) throws IOException {
+        var compacted = this.file.resolveSibling(this.file.getFileName() + ".compact");
+        var capacity = Math.min(Math.max(live.size() * 2L * RECORD_SIZE, INITIAL_CAPACITY), MAX_CAPACITY);
+
+        var count = 0;
+        try (var compactedChannel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var compactedBuffer = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (var entry : live) {
+                // A concurrent collection can hold more than its size said
+                if ((count + 1L) * RECORD_SIZE > capacity) {
+                    if (capacity >= MAX_CAPACITY) {
+                        throw new IOException("session journal can't hold " + live.size() + " live sessions");
+                    }
+                    capacity = Math.min(capacity * 2, MAX_CAPACITY);
+                    compactedBuffer.force();
+                    compactedBuffer = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                }
+                writeRecord(compactedBuffer, count * RECORD_SIZE, entry);
+                count++;
+            }
+            compactedBuffer.force();
+        } catch (IOException e) {
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+
+        Files.move(compacted, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        this.channel.close();
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.records = count;
+    }
+
+    private static void writeRecord(MappedByteBuffer buffer, int offset, Entry entry) {
+        var sides = entry.sides();
+        var mask = 0;
+        for (var iSide = 0; iSide < 6; iSide++) {
+            var side = sides[iSide];
+            buffer.putLong(offset + SIDES_OFFSET + iSide * 8, side == null ? 0 : side.encoded());
+            if (side != null) {
+                mask |= 1 << iSide;
+            }
+        }
+
+        buffer.putLong(offset, entry.sessionId().getMostSignificantBits());
+        buffer.putLong(offset + 8, entry.sessionId().getLeastSignificantBits());
+        buffer.putInt(offset + REVISION_OFFSET, entry.revision());
+        buffer.putInt(offset + HEADER_OFFSET, RECORD_PRESENT | mask);
+    }
+
+    private static Entry readRecord(MappedByteBuffer buffer, int offset, int header) {
+        var sessionId = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+        var revision = buffer.getInt(offset + REVISION_OFFSET);
+
+        var sides = new Side[6];
+        for (var iSide = 0; iSide < 6; iSide++) {
+            if ((header & SIDE_MASK & (1 << iSide)) != 0) {
+                sides[iSide] = Side.fromEncoded(buffer.getLong(offset + SIDES_OFFSET + iSide * 8));
+            }
+        }
+        return new Entry(sessionId, revision, sides);
+    }
+
+    /**
+     * @param revision Number of merges the session has had. Used to pick the
+     *                 newest state when a session appears more than once.
+     */
+    public record Entry(UUID sessionId, int revision, Side[] sides) {
+    }
+}
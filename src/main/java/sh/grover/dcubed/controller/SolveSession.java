@@ -1,23 +1,147 @@
 package sh.grover.dcubed.controller;
 
 import sh.grover.dcubed.model.Side;
+import sh.grover.dcubed.model.SolveInstructions;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Holds the sides scanned so far for one cube. The state is an immutable
+ * {@link Snapshot} that's replaced with compare-and-set on every merge, so
+ * concurrent merges never lose each other's sides and readers never block.
+ */
 public class SolveSession {
 
-    private final Side[] sides = new Side[6];
+    private final AtomicReference<Snapshot> state;
+    private final AtomicReference<Solve> solve = new AtomicReference<>();
+
+    public SolveSession() {
+        this.state = new AtomicReference<>(Snapshot.EMPTY);
+    }
+
+    SolveSession(int revision, Side[] sides) {
+        this.state = new AtomicReference<>(Snapshot.EMPTY.merge(sides).withRevision(revision));
+    }
+
+    /**
+     * Atomically overwrites every side that is non-null in {@code sides}
+     * @return The state of the session immediately after this merge
+     */
+    public Snapshot mergeSides(Side[] sides) {
+        return this.state.updateAndGet(current -> current.merge(sides));
+    }
 
-    public void mergeSides(Side[] sides) {
-        for (var sideColor = 0; sideColor < sides.length; sideColor++) {
-            var side = sides[sideColor];
-            if (side != null) {
-                this.sides[sideColor] = side;
+    public Snapshot snapshot() {
+        return this.state.get();
+    }
+
+    public Side[] sides() {
+        return this.snapshot().sides();
+    }
+
+    /**
+     * @return The number of times sides have been merged into this session
+     */
+    public int revision() {
+        return this.snapshot().revision();
+    }
+
+    /**
+     * Solves the current state of the session, or joins the solve of that
+     * same state if one was already started. No matter how many callers ask,
+     * each state is only solved once.
+     * @param solver Computes the instructions for a complete set of sides
+     * @param executor Runs {@code solver} if the current state hasn't been
+     *                 solved yet. If it rejects the task, the returned future
+     *                 fails and the next call starts over.
+     */
+    CompletableFuture<SolveInstructions> solve(Function<Side[], SolveInstructions> solver, Executor executor) {
+        var snapshot = this.snapshot();
+        while (true) {
+            var current = this.solve.get();
+            if (current != null && current.snapshot() == snapshot) {
+                return current.result();
             }
+
+            var started = new Solve(snapshot, new CompletableFuture<>());
+            if (!this.solve.compareAndSet(current, started)) {
+                continue;
+            }
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        started.result().complete(solver.apply(snapshot.sides()));
+                    } catch (Throwable e) {
+                        started.result().completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.solve.compareAndSet(started, null);
+                started.result().completeExceptionally(e);
+            }
+            return started.result();
         }
     }
 
-    public Side[] sides() {
-        var copy = new Side[this.sides.length];
-        System.arraycopy(this.sides, 0, copy, 0, this.sides.length);
-        return copy;
+    private record Solve(Snapshot snapshot, CompletableFuture<SolveInstructions> result) {
+    }
+
+    /**
+     * Sides packed by {@link Side#encoded()}, indexed by center color. The
+     * lower 6 bits of {@code mask} mark which of them are known.
+     */
+    public static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(0, 0, new long[6]);
+
+        private final int revision;
+        private final int mask;
+        private final long[] sides;
+
+        private Snapshot(int revision, int mask, long[] sides) {
+            this.revision = revision;
+            this.mask = mask;
+            this.sides = sides;
+        }
+
+        private Snapshot merge(Side[] merging) {
+            var merged = this.sides.clone();
+            var mergedMask = this.mask;
+            for (var sideColor = 0; sideColor < merging.length; sideColor++) {
+                var side = merging[sideColor];
+                if (side != null) {
+                    merged[sideColor] = side.encoded();
+                    mergedMask |= 1 << sideColor;
+                }
+            }
+            return new Snapshot(this.revision + 1, mergedMask, merged);
+        }
+
+        private Snapshot withRevision(int revision) {
+            return new Snapshot(revision, this.mask, this.sides);
+        }
+
+        public int revision() {
+            return this.revision;
+        }
+
+        public boolean isComplete() {
+            return this.mask == 0b111111;
+        }
+
+        public Side[] sides() {
+            var sides = new Side[this.sides.length];
+            for (var sideColor = 0; sideColor < sides.length; sideColor++) {
+                if ((this.mask & (1 << sideColor)) != 0) {
+                    sides[sideColor] = Side.fromEncoded(this.sides[sideColor]);
+                }
+            }
+            return sides;
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,36 +2,157 @@ package sh.grover.dcubed.controller;
 
 import sh.grover.dcubed.controller.solve.*;
 import sh.grover.dcubed.model.*;
+import sh.grover.dcubed.util.metrics.Metrics;
+import sh.grover.dcubed.util.metrics.Stage;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SolverSessions {
 
+    private static final int SOLVE_QUEUE_SIZE = 256;
+
     private final ConcurrentHashMap<UUID, SolveSession> sessions = new ConcurrentHashMap<>();
 
-    public ScanResult newSession(Side[] sides) {
+    /**
+     * Runs solves in the background as soon as a session has all six sides,
+     * so the result is usually ready by the time it's requested.
+     */
+    private final ExecutorService solveExecutor = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(),
+            0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(SOLVE_QUEUE_SIZE),
+            Thread.ofPlatform().name("solver-", 0).daemon().factory()
+    );
+    private final SessionJournal journal;
+
+    // Registered once for every constructor
+    {
+        Metrics.gauge("dcubed_live_sessions", "Sessions currently held in memory", this.sessions::size);
+    }
+
+    public SolverSessions() {
+        this.journal = null;
+    }
+
+    /**
+     * Restores all sessions recorded in the journal and records every
+     * subsequent change to it.
+     */
+    public SolverSessions(SessionJournal journal) throws IOException {
+        this.journal = journal;
+        for (var entry : journal.recover()) {
+            this.sessions.put(entry.sessionId(), new SolveSession(entry.revision(), entry.sides()));
+        }
+        journal.start(this::journalEntries);
+    }
+
+    /**
+     * @param photos Sides scanned from each photo, merged in one step
+     */
+    public ScanResult newSession(Side[]... photos) {
         var session = new SolveSession();
-        session.mergeSides(sides);
+        var snapshot = session.mergeSides(combine(photos));
 
         var sessionId = UUID.randomUUID();
         this.sessions.put(sessionId, session);
-        return new ScanResult(sessionId, session.sides());
+        this.journal(sessionId, snapshot);
+        this.speculateSolve(session, snapshot);
+        return new ScanResult(sessionId, snapshot.sides());
     }
 
-    public ScanResult addPhoto(UUID sessionId, Side[] sides) throws IllegalArgumentException {
+    /**
+     * @param photos Sides scanned from each photo, merged in one step so the
+     *               session never holds only some of them
+     */
+    public ScanResult addPhoto(UUID sessionId, Side[]... photos) throws IllegalArgumentException {
         var session = this.sessions.get(sessionId);
         if (session == null) {
             throw new IllegalArgumentException("session does not exist");
         }
 
-        session.mergeSides(sides);
-        return new ScanResult(sessionId, session.sides());
+        var snapshot = session.mergeSides(combine(photos));
+        this.journal(sessionId, snapshot);
+        this.speculateSolve(session, snapshot);
+        return new ScanResult(sessionId, snapshot.sides());
     }
 
-    public SolveInstructions solve(UUID sessionId) {
+    /**
+     * Gets the instructions to solve a session's cube. Returns immediately if
+     * the cube was already solved in the background, otherwise waits for the
+     * solve to finish.
+     */
+    public SolveInstructions solve(UUID sessionId) throws IllegalArgumentException {
         var session = this.sessions.get(sessionId);
-        var sides = session.sides();
+        if (session == null) {
+            throw new IllegalArgumentException("session does not exist");
+        }
+        if (!session.snapshot().isComplete()) {
+            throw new IllegalArgumentException("session is missing sides");
+        }
+
+        while (true) {
+            try {
+                return session.solve(SolverSessions::solve, this::solveNow).join();
+            } catch (CompletionException e) {
+                // A speculative solve was dropped because the executor was
+                // full. Try again, this time without being rejected.
+                if (!(e.getCause() instanceof RejectedExecutionException)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Every side seen in any of the photos. A side seen in more than
+     * one is taken from the last.
+     */
+    private static Side[] combine(Side[][] photos) {
+        if (photos.length == 1) {
+            return photos[0];
+        }
+
+        var combined = new Side[6];
+        for (var photo : photos) {
+            for (var sideColor = 0; sideColor < photo.length; sideColor++) {
+                if (photo[sideColor] != null) {
+                    combined[sideColor] = photo[sideColor];
+                }
+            }
+        }
+        return combined;
+    }
+
+    private void speculateSolve(SolveSession session, SolveSession.Snapshot snapshot) {
+        if (snapshot.isComplete()) {
+            session.solve(SolverSessions::solve, this.solveExecutor);
+        }
+    }
+
+    /**
+     * Runs the solve in the background executor, or on the calling thread if
+     * the executor is full.
+     */
+    private void solveNow(Runnable solve) {
+        try {
+            this.solveExecutor.execute(solve);
+        } catch (RejectedExecutionException e) {
+            solve.run();
+        }
+    }
+
+    private static SolveInstructions solve(Side[] sides) {
+        var solveStart = System.nanoTime();
         var cube = new Cube(
                 sides[FaceColor.WHITE],
                 sides[FaceColor.RED],
@@ -49,6 +170,22 @@ public class SolverSessions {
         instructions.runStep(new YellowEdgesStep(cube));
         instructions.runStep(new PositionYellowCornersStep(cube));
         instructions.runStep(new OrientYellowCornersStep(cube));
+        Stage.SOLVE.recordSince(solveStart);
         return instructions;
     }
+
+    private void journal(UUID sessionId, SolveSession.Snapshot snapshot) {
+        if (this.journal != null) {
+            this.journal.append(new SessionJournal.Entry(sessionId, snapshot.revision(), snapshot.sides()));
+        }
+    }
+
+    private List<SessionJournal.Entry> journalEntries() {
+        return this.sessions.entrySet().stream()
+                .map(entry -> {
+                    var snapshot = entry.getValue().snapshot();
+                    return new SessionJournal.Entry(entry.getKey(), snapshot.revision(), snapshot.sides());
+                })
+                .toList();
+    }
 }
\ No newline at end of file
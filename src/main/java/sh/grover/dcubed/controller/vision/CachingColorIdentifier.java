@@ -0,0 +1,62 @@
+package sh.grover.dcubed.controller.vision;
+
+import sh.grover.dcubed.model.Side;
+import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.ContentCache;
+
+import java.io.IOException;
+
+/**
+ * Returns the sides found in an identical upload straight away. Clients
+ * retry uploads on flaky connections and users submit the same photo again
+ * after errors, and each would otherwise be scanned from scratch. Only
+ * successful scans are kept, since failures may be transient. The caller
+ * still merges the sides into its own session. Scans with a client's
+ * segmentation aren't cached, as their sides depend on it as well.
+ */
+public class CachingColorIdentifier implements IColorIdentifier {
+
+    /**
+     * Heap taken by a side: an object header and its encoded stickers
+     */
+    private static final long SIDE_BYTES = 24;
+
+    private final IColorIdentifier identifier;
+    private final ContentCache<Side[]> cache;
+
+    /**
+     * @param capacityBytes Most bytes of scans to remember
+     */
+    public CachingColorIdentifier(IColorIdentifier identifier, long capacityBytes) {
+        this.identifier = identifier;
+        this.cache = new ContentCache<>("scan", capacityBytes, CachingColorIdentifier::weigh);
+    }
+
+    @Override
+    public Side[] estimateColors(EncodedImage image, CubeSegmentation clientSegmentation) throws ColorScanException, IOException {
+        if (clientSegmentation != null) {
+            return this.identifier.estimateColors(image, clientSegmentation);
+        }
+
+        var cached = this.cache.get(image);
+        if (cached != null) {
+            return cached.clone();
+        }
+
+        var sides = this.identifier.estimateColors(image, clientSegmentation);
+        this.cache.put(image, sides.clone());
+        return sides;
+    }
+
+    private static long weigh(Side[] sides) {
+        var bytes = 16L + sides.length * 4L;
+        for (var side : sides) {
+            if (side != null) {
+                bytes += SIDE_BYTES;
+            }
+        }
+        return bytes;
+    }
+}
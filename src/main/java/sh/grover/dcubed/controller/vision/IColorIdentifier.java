@@ -1,10 +1,29 @@
 package sh.grover.dcubed.controller.vision;
 
-import org.opencv.core.Mat;
 import sh.grover.dcubed.model.Side;
 import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+
+import java.io.IOException;
 
 public interface IColorIdentifier {
 
-    Side[] estimateColors(Mat image) throws ColorScanException;
+    /**
+     * @throws IOException If the image can't be decoded
+     * @throws ColorScanException If the cube couldn't be found in the image
+     */
+    default Side[] estimateColors(EncodedImage image) throws ColorScanException, IOException {
+        return this.estimateColors(image, null);
+    }
+
+    /**
+     * @param clientSegmentation Where the client found the cube, in the
+     *                           coordinates of the original image, or
+     *                           {@code null} to find it here. Ignored if it
+     *                           isn't plausible.
+     * @throws IOException If the image can't be decoded
+     * @throws ColorScanException If the cube couldn't be found in the image
+     */
+    Side[] estimateColors(EncodedImage image, CubeSegmentation clientSegmentation) throws ColorScanException, IOException;
 }
@@ -1,13 +1,14 @@
 package sh.grover.dcubed.controller.vision;
 
-import org.opencv.core.Mat;
 import sh.grover.dcubed.model.FaceColor;
 import sh.grover.dcubed.model.Side;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
 
 public class MockColorIdentifier implements IColorIdentifier {
 
     @Override
-    public Side[] estimateColors(Mat image) {
+    public Side[] estimateColors(EncodedImage image) {
         return new Side[] {
                 new Side(FaceColor.WHITE, FaceColor.RED, FaceColor.ORANGE, FaceColor.WHITE, FaceColor.GREEN, FaceColor.GREEN, FaceColor.RED, FaceColor.WHITE),
                 new Side(FaceColor.RED, FaceColor.WHITE, FaceColor.WHITE, FaceColor.BLUE, FaceColor.BLUE, FaceColor.ORANGE, FaceColor.WHITE, FaceColor.RED),
@@ -17,4 +18,9 @@ public class MockColorIdentifier implements IColorIdentifier {
                 new Side(FaceColor.ORANGE, FaceColor.ORANGE, FaceColor.BLUE, FaceColor.BLUE, FaceColor.GREEN, FaceColor.ORANGE, FaceColor.ORANGE, FaceColor.WHITE),
         };
     }
-}
\ No newline at end of file
+
+    @Override
+    public Side[] estimateColors(EncodedImage image, CubeSegmentation clientSegmentation) {
+        return this.estimateColors(image);
+    }
+}
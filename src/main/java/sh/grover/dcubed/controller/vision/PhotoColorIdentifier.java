@@ -2,79 +2,273 @@ package sh.grover.dcubed.controller.vision;
 
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
-import sh.grover.dcubed.controller.vision.segment.HttpCubeSegmenter;
 import sh.grover.dcubed.controller.vision.segment.ICubeSegmenter;
 import sh.grover.dcubed.model.Side;
 import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
 import sh.grover.dcubed.model.vision.FaceColorExtractor;
+import sh.grover.dcubed.model.vision.PhotoQualityCheck;
+import sh.grover.dcubed.model.vision.StickerSampler;
 import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.CpuLimiter;
+import sh.grover.dcubed.util.CpuPool;
+import sh.grover.dcubed.util.DebugCapture;
 import sh.grover.dcubed.util.DrawUtil;
+import sh.grover.dcubed.util.Homography;
+import sh.grover.dcubed.util.ImageHeaders;
+import sh.grover.dcubed.util.ImageUtil;
+import sh.grover.dcubed.util.MatScope;
 import sh.grover.dcubed.util.MathUtil;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Metrics;
+import sh.grover.dcubed.util.metrics.RequestTimings;
+import sh.grover.dcubed.util.metrics.Stage;
 
-import java.net.URI;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class PhotoColorIdentifier implements IColorIdentifier {
 
+    public enum SamplingMode {
+        /**
+         * Warp each face into its own image, then sample the stickers
+         */
+        WARP,
+        /**
+         * Map only the sampled pixels of each face back into the photo
+         * through the face's homography. Gives the same samples as
+         * {@link #WARP} without computing whole faces.
+         */
+        HOMOGRAPHY,
+    }
+
+    private static final Counter CLIENT_SEGMENTATIONS = Metrics.counter("dcubed_client_segmentations_total", "Segmentations sent by clients, by whether they were used instead of calling the segmenter", "outcome");
+
     private final ICubeSegmenter segmenter;
-    private final boolean debug;
+    private final ExecutorService segmentExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final SamplingMode samplingMode;
+    private final PhotoQualityCheck qualityCheck;
 
-    public PhotoColorIdentifier(boolean debug) {
-        this.segmenter = new HttpCubeSegmenter(URI.create("http://localhost:5000"));
-        this.debug = debug;
+    /**
+     * @param samplingMode How to sample stickers. Scans captured by
+     *                     {@link DebugCapture} always warp, since the faces
+     *                     are captured.
+     * @param qualityCheck Rejects unusable photos before they're segmented
+     */
+    public PhotoColorIdentifier(ICubeSegmenter segmenter, SamplingMode samplingMode, PhotoQualityCheck qualityCheck) {
+        this.segmenter = segmenter;
+        this.samplingMode = samplingMode;
+        this.qualityCheck = qualityCheck;
     }
 
     @Override
-    public Side[] estimateColors(Mat image) throws ColorScanException {
-        CubeSegmentation segmentation;
-        try {
-            segmentation = this.segmenter.segment(image);
-        } catch (Exception e) {
-            throw new ColorScanException("failed to segment image", e);
+    public Side[] estimateColors(EncodedImage encoded, CubeSegmentation clientSegmentation) throws ColorScanException, IOException {
+        // Far cheaper than a segmenter call that's bound to be wasted
+        this.qualityCheck.check(encoded);
+
+        // Shared with in-process segmenters, so the photo is decoded once
+        var decoded = new CompletableFuture<Mat>();
+        SegmentationCall segmentationCall = null;
+        if (isUsable(encoded, clientSegmentation)) {
+            CLIENT_SEGMENTATIONS.increment("used");
+        } else {
+            if (clientSegmentation != null) {
+                CLIENT_SEGMENTATIONS.increment("implausible");
+            }
+            // Decode while waiting on the segmenter
+            segmentationCall = SegmentationCall.start(this.segmentExecutor, this.segmenter, encoded, decoded);
+        }
+
+        try (var mats = new MatScope()) {
+            Mat image;
+            CubeSegmentation segmentation;
+            try {
+                image = mats.track(ImageUtil.decode(encoded));
+                decoded.complete(image);
+                segmentation = segmentationCall == null ? clientSegmentation : segmentationCall.get();
+            } catch (ExecutionException e) {
+                throw new ColorScanException("failed to segment image", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ColorScanException("interrupted while segmenting image", e);
+            } finally {
+                if (segmentationCall != null) {
+                    segmentationCall.cancel();
+                }
+            }
+
+            // The segmenter saw the image at its original size
+            var scale = ImageUtil.decodeScale(encoded, image);
+            if (scale != 1) {
+                segmentation = segmentation.scale(scale);
+            }
+
+            CpuLimiter.acquire();
+            try {
+                return this.extractColors(mats, image, segmentation);
+            } finally {
+                CpuLimiter.release();
+            }
+        }
+    }
+
+    /**
+     * A segmenter call running on another thread. It reads the upload's
+     * buffer, which goes back to the pool and is overwritten by another
+     * upload once the scan returns, and may read the decoded image, which is
+     * released then. So the scan mustn't return while the call still runs,
+     * even after cancelling it. If decoding fails, cancelling interrupts a
+     * call still waiting for the decoded image.
+     */
+    private static class SegmentationCall {
+
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CompletableFuture<Void> settled = new CompletableFuture<>();
+        private Future<CubeSegmentation> future;
+
+        private SegmentationCall() {
+        }
+
+        static SegmentationCall start(ExecutorService executor, ICubeSegmenter segmenter, EncodedImage image, Future<Mat> decoded) {
+            var call = new SegmentationCall();
+            call.future = executor.submit(RequestTimings.propagate(() -> {
+                // Lost the race with cancel(), which won't wait for it
+                if (!call.started.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return segmenter.segment(image, decoded);
+                } finally {
+                    call.settled.complete(null);
+                }
+            }));
+            return call;
+        }
+
+        CubeSegmentation get() throws ExecutionException, InterruptedException {
+            return this.future.get();
         }
 
+        /**
+         * Interrupts the call if it's still running, then waits for it to
+         * stop, ignoring interrupts. Does nothing once the call finished.
+         */
+        void cancel() {
+            this.future.cancel(true);
+            if (!this.started.compareAndSet(false, true)) {
+                this.settled.join();
+            }
+        }
+    }
+
+    private static boolean isUsable(EncodedImage encoded, CubeSegmentation clientSegmentation) {
+        if (clientSegmentation == null) {
+            return false;
+        }
+
+        // Points can't be checked against an image of unknown size
+        var dimensions = ImageHeaders.dimensions(encoded.bytes(), encoded.length());
+        return dimensions != null && clientSegmentation.isPlausible(dimensions.width(), dimensions.height());
+    }
+
+    private Side[] extractColors(MatScope mats, Mat image, CubeSegmentation segmentation) {
         var cropFrom = new Point(segmentation.lowestX(), segmentation.lowestY());
         var cropTo = new Point(segmentation.highestX(), segmentation.highestY());
 
-        if (this.debug) {
-            var annotated = new Mat();
+        var capturing = DebugCapture.isCapturing();
+        if (capturing) {
+            var annotated = mats.mat();
             image.copyTo(annotated);
 
             DrawUtil.segmentation(annotated, segmentation);
             Imgproc.rectangle(annotated, cropFrom, cropTo, new Scalar(255, 255, 255));
-            DrawUtil.debugWrite(annotated, "points");
+            DebugCapture.write(annotated, "points");
         }
 
         var range = new Rect(cropFrom, cropTo);
-        var cropped = image.submat(range);
+        var cropped = mats.track(image.submat(range));
         var croppedSegmentation = segmentation.subtract(cropFrom.x, cropFrom.y);
 
-        var leftFace = warpedCrop(cropped, croppedSegmentation.topLeft(), croppedSegmentation.center(), croppedSegmentation.bottom(), croppedSegmentation.bottomLeft());
-        var rightFace = warpedCrop(cropped, croppedSegmentation.center(), croppedSegmentation.topRight(), croppedSegmentation.bottomRight(), croppedSegmentation.bottom());
-        var topFace = warpedCrop(cropped, croppedSegmentation.top(), croppedSegmentation.topRight(), croppedSegmentation.center(), croppedSegmentation.topLeft());
+        if (this.samplingMode == SamplingMode.HOMOGRAPHY && !capturing) {
+            return sampleThroughHomographies(mats, cropped, croppedSegmentation);
+        }
+
+        var warpStart = System.nanoTime();
+        var faces = CpuPool.invokeAll(List.<Supplier<Mat>>of(
+                () -> warpedCrop(mats, cropped, croppedSegmentation.topLeft(), croppedSegmentation.center(), croppedSegmentation.bottom(), croppedSegmentation.bottomLeft()),
+                () -> warpedCrop(mats, cropped, croppedSegmentation.center(), croppedSegmentation.topRight(), croppedSegmentation.bottomRight(), croppedSegmentation.bottom()),
+                () -> warpedCrop(mats, cropped, croppedSegmentation.top(), croppedSegmentation.topRight(), croppedSegmentation.center(), croppedSegmentation.topLeft())
+        ));
+        var leftFace = faces.get(0);
+        var rightFace = faces.get(1);
+        var topFace = faces.get(2);
+        Stage.WARP.recordSince(warpStart);
 
-        if (this.debug) {
-            DrawUtil.debugWrite(leftFace, "left-face");
-            DrawUtil.debugWrite(rightFace, "right-face");
-            DrawUtil.debugWrite(topFace, "top-face");
+        if (capturing) {
+            DebugCapture.write(leftFace, "left-face");
+            DebugCapture.write(rightFace, "right-face");
+            DebugCapture.write(topFace, "top-face");
         }
 
-        return new FaceColorExtractor(this.debug, topFace, leftFace, rightFace).result();
+        var extractStart = System.nanoTime();
+        var sides = new FaceColorExtractor(topFace, leftFace, rightFace).result();
+        Stage.EXTRACT.recordSince(extractStart);
+        return sides;
+    }
+
+    private static Side[] sampleThroughHomographies(MatScope mats, Mat cropped, CubeSegmentation segmentation) {
+        var extractStart = System.nanoTime();
+        var continuous = cropped.isContinuous() ? cropped : mats.track(cropped.clone());
+        var width = cropped.width();
+        var height = cropped.height();
+        var channels = cropped.channels();
+        var pixels = new byte[width * height * channels];
+        continuous.get(0, 0, pixels);
+
+        // Same corners as the warps above
+        var means = CpuPool.invokeAll(List.<Supplier<int[]>>of(
+                () -> sampleFace(pixels, width, height, channels, segmentation.topLeft(), segmentation.center(), segmentation.bottom(), segmentation.bottomLeft()),
+                () -> sampleFace(pixels, width, height, channels, segmentation.center(), segmentation.topRight(), segmentation.bottomRight(), segmentation.bottom()),
+                () -> sampleFace(pixels, width, height, channels, segmentation.top(), segmentation.topRight(), segmentation.center(), segmentation.topLeft())
+        ));
+
+        var sides = new FaceColorExtractor(means.get(2), means.get(0), means.get(1)).result();
+        Stage.EXTRACT.recordSince(extractStart);
+        return sides;
+    }
+
+    private static int[] sampleFace(byte[] pixels, int width, int height, int channels, Point tl, Point tr, Point br, Point bl) {
+        // Sized like the warped face would be, so the same pixels are sampled
+        var faceWidth = MathUtil.greatestLength(br, bl, tr, tl);
+        var faceHeight = MathUtil.greatestLength(tr, br, tl, bl);
+        var homography = Homography.fromRectangle(faceWidth, faceHeight, tl, tr, br, bl);
+
+        var means = new int[27];
+        StickerSampler.sampleMapped(pixels, width, height, channels, homography, faceWidth, faceHeight, means);
+        return means;
     }
 
-    private static Mat warpedCrop(Mat image, Point tl, Point tr, Point br, Point bl) {
+    private static Mat warpedCrop(MatScope mats, Mat image, Point tl, Point tr, Point br, Point bl) {
         var width = MathUtil.greatestLength(br, bl, tr, tl);
         var height = MathUtil.greatestLength(tr, br, tl, bl);
 
-        var perspectiveSrc = new MatOfPoint2f(tl, tr, br, bl);
-        var perspectiveDst = new MatOfPoint2f(
+        var perspectiveSrc = mats.track(new MatOfPoint2f(tl, tr, br, bl));
+        var perspectiveDst = mats.track(new MatOfPoint2f(
                 new Point(0, 0),
                 new Point(width - 1, 0),
                 new Point(width - 1, height - 1),
                 new Point(0, height - 1)
-        );
+        ));
 
-        var matrix = Imgproc.getPerspectiveTransform(perspectiveSrc, perspectiveDst);
-        var warped = new Mat();
+        var matrix = mats.track(Imgproc.getPerspectiveTransform(perspectiveSrc, perspectiveDst));
+        var warped = mats.scratch();
         Imgproc.warpPerspective(image, warped, matrix, new Size(width, height));
         return warped;
     }
@@ -0,0 +1,167 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.LatencyHistogram;
+import sh.grover.dcubed.util.metrics.Metrics;
+import sh.grover.dcubed.util.metrics.Stage;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent scans into batches, since the model segments a batch
+ * of images far more efficiently than the same images one by one. A batch is
+ * sent once it's full or its oldest image has waited long enough, whichever
+ * comes first. Batches are sent concurrently, so a slow one doesn't hold up
+ * the next.
+ */
+public class BatchingCubeSegmenter implements ICubeSegmenter, AutoCloseable {
+
+    private static final Counter BATCHES = Metrics.counter("dcubed_segment_batches_total", "Batches sent to the segmenter, by number of images", "size");
+    private static final LatencyHistogram BATCH_DURATION = Metrics.histogram("dcubed_segment_batch_duration_seconds", "Time for the segmenter to process a batch");
+    private static final LatencyHistogram BATCH_WAIT = Metrics.histogram("dcubed_segment_batch_wait_seconds", "Time an image waited for its batch to be sent");
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final IBatchCubeSegmenter delegate;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final ExecutorService batchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread collector;
+    private volatile boolean closed;
+
+    /**
+     * @param maxBatchSize Most images to send in one batch
+     * @param maxDelay Longest an image waits for others to join its batch
+     */
+    public BatchingCubeSegmenter(IBatchCubeSegmenter delegate, int maxBatchSize, Duration maxDelay) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + maxBatchSize);
+        }
+
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.collector = Thread.ofPlatform().name("segment-batcher").daemon().start(this::runCollector);
+    }
+
+    @Override
+    public CubeSegmentation segment(EncodedImage image) throws Exception {
+        if (this.closed) {
+            throw new IllegalStateException("segmenter is closed");
+        }
+
+        var request = new Pending(image, System.nanoTime(), new CompletableFuture<>());
+        this.pending.add(request);
+
+        try {
+            var segmentation = request.result().get();
+            Stage.SEGMENT.recordSince(request.enqueuedNanos());
+            return segmentation;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            // The caller may reuse the image's buffer once this returns, so
+            // it can't return while a batch is still reading the image
+            if (!this.pending.remove(request)) {
+                request.result().handle((result, error) -> null).join();
+            }
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private void runCollector() {
+        while (!this.closed || !this.pending.isEmpty()) {
+            try {
+                var first = this.pending.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                var batch = new ArrayList<Pending>(this.maxBatchSize);
+                batch.add(first);
+
+                var deadline = first.enqueuedNanos() + this.maxDelayNanos;
+                while (batch.size() < this.maxBatchSize) {
+                    var remaining = deadline - System.nanoTime();
+                    var next = remaining > 0 ? this.pending.poll(remaining, TimeUnit.NANOSECONDS) : this.pending.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                this.batchExecutor.execute(() -> this.send(batch));
+            } catch (InterruptedException e) {
+                // Keep draining until closed
+            }
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        var sendStart = System.nanoTime();
+        var images = new ArrayList<EncodedImage>(batch.size());
+        for (var request : batch) {
+            images.add(request.image());
+            BATCH_WAIT.record(sendStart - request.enqueuedNanos());
+        }
+        BATCHES.increment(Integer.toString(batch.size()));
+
+        List<CubeSegmentation> results;
+        try {
+            results = this.delegate.segmentBatch(images);
+            if (results.size() != batch.size()) {
+                throw new IOException("segmenter returned " + results.size() + " results for " + batch.size() + " images");
+            }
+        } catch (Exception e) {
+            for (var request : batch) {
+                request.result().completeExceptionally(e);
+            }
+            return;
+        }
+        BATCH_DURATION.recordSince(sendStart);
+
+        for (var iRequest = 0; iRequest < batch.size(); iRequest++) {
+            var result = results.get(iRequest);
+            if (result == null) {
+                batch.get(iRequest).result().completeExceptionally(new ColorScanException("cube not found in image"));
+            } else {
+                batch.get(iRequest).result().complete(result);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting images and waits for every queued image to be sent
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.collector.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.batchExecutor.close();
+    }
+
+    private record Pending(EncodedImage image, long enqueuedNanos, CompletableFuture<CubeSegmentation> result) {
+    }
+}
@@ -0,0 +1,56 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import org.opencv.core.Mat;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.ContentCache;
+
+import java.util.concurrent.Future;
+
+/**
+ * Returns the segmentation of an identical upload without calling the
+ * segmenter again, e.g. when a scan was segmented but failed later on and
+ * the photo is submitted again
+ */
+public class CachingCubeSegmenter implements ICubeSegmenter {
+
+    /**
+     * Heap taken by a segmentation: the record and its seven points
+     */
+    private static final long SEGMENTATION_BYTES = 48 + 7 * 32;
+
+    private final ICubeSegmenter segmenter;
+    private final ContentCache<CubeSegmentation> cache;
+
+    /**
+     * @param capacityBytes Most bytes of segmentations to remember
+     */
+    public CachingCubeSegmenter(ICubeSegmenter segmenter, long capacityBytes) {
+        this.segmenter = segmenter;
+        this.cache = new ContentCache<>("segmentation", capacityBytes, segmentation -> SEGMENTATION_BYTES);
+    }
+
+    @Override
+    public CubeSegmentation segment(EncodedImage image) throws Exception {
+        var cached = this.cache.get(image);
+        if (cached != null) {
+            return cached;
+        }
+
+        var segmentation = this.segmenter.segment(image);
+        this.cache.put(image, segmentation);
+        return segmentation;
+    }
+
+    @Override
+    public CubeSegmentation segment(EncodedImage image, Future<Mat> decoded) throws Exception {
+        var cached = this.cache.get(image);
+        if (cached != null) {
+            return cached;
+        }
+
+        var segmentation = this.segmenter.segment(image, decoded);
+        this.cache.put(image, segmentation);
+        return segmentation;
+    }
+}
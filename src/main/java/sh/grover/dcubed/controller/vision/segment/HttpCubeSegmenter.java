@@ -1,41 +1,92 @@
 package sh.grover.dcubed.controller.vision.segment;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.imgcodecs.Imgcodecs;
 import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
 import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.CircuitBreaker;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Gauge;
+import sh.grover.dcubed.util.metrics.Metrics;
+import sh.grover.dcubed.util.metrics.Stage;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class HttpCubeSegmenter implements ICubeSegmenter, AutoCloseable {
+public class HttpCubeSegmenter implements ICubeSegmenter, IBatchCubeSegmenter, AutoCloseable {
 
+    private static final Counter HEDGES = Metrics.counter("dcubed_segmenter_hedges_total", "Segmenter calls that were sent a second time, by whether the second attempt finished first", "outcome");
+    private static final Counter BREAKER_REJECTIONS = Metrics.counter("dcubed_segmenter_breaker_rejections_total", "Segmenter calls rejected because the circuit breaker was open", "endpoint");
+    private static final Gauge BREAKER_STATE = Metrics.gauge("dcubed_segmenter_breaker_state", "State of each segmenter's circuit breaker: 0 closed, 1 open, 2 half-open", "endpoint");
+
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final URI rootEndpoint;
     private final URI endpoint;
+    private final URI batchEndpoint;
+    private final Duration requestTimeout;
+    private final boolean hedge;
+    private final CircuitBreaker breaker;
+    private final RecentLatencies latencies = new RecentLatencies(LATENCY_SAMPLES, MIN_LATENCY_SAMPLES);
+    /**
+     * Kept apart from single calls, since a batch takes longer the more
+     * images it holds
+     */
+    private final RecentLatencies batchLatencies = new RecentLatencies(LATENCY_SAMPLES, MIN_LATENCY_SAMPLES);
     private final HttpClient httpClient;
     private final ObjectMapper jsonMapper;
 
     public HttpCubeSegmenter(URI rootEndpoint) {
+        this(rootEndpoint, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, true, new CircuitBreaker(20, 10, 0.5, Duration.ofSeconds(5)));
+    }
+
+    /**
+     * @param requestTimeout How long to wait for a response, per attempt
+     * @param hedge Whether to send a second attempt when the first takes
+     *              longer than 95% of recent calls
+     * @param breaker Tracks calls that failed or returned a server error
+     */
+    public HttpCubeSegmenter(URI rootEndpoint, Duration connectTimeout, Duration requestTimeout, boolean hedge, CircuitBreaker breaker) {
+        this.rootEndpoint = rootEndpoint;
         this.endpoint = rootEndpoint.resolve("segment");
-        this.httpClient = HttpClient.newHttpClient();
+        this.batchEndpoint = rootEndpoint.resolve("segment-batch");
+        this.requestTimeout = requestTimeout;
+        this.hedge = hedge;
+        this.breaker = breaker;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
         this.jsonMapper = new ObjectMapper();
+
+        BREAKER_STATE.set(rootEndpoint.toString(), () -> breaker.state().ordinal());
     }
 
     @Override
-    public CubeSegmentation segment(Mat image) throws Exception {
-        var buf = new MatOfByte();
-        Imgcodecs.imencode(".jpeg", image, buf);
-        var bytes = buf.toArray();
-
+    public CubeSegmentation segment(EncodedImage image) throws Exception {
+        // Forwarded as uploaded, no need to re-encode
         var request = HttpRequest.newBuilder(this.endpoint)
-                .POST(HttpRequest.BodyPublishers.ofByteArray(bytes))
+                .timeout(this.requestTimeout)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(copyOf(image)))
                 .build();
 
-        var response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        var segmentStart = System.nanoTime();
+        var response = this.send(request, image.length(), this.latencies);
+        Stage.SEGMENT.recordSince(segmentStart);
 
         switch (response.statusCode()) {
             case 200 -> {
@@ -47,6 +98,192 @@ public class HttpCubeSegmenter implements ICubeSegmenter, AutoCloseable {
         }
     }
 
+    /**
+     * Sends every image in one request. Each image is prefixed with its
+     * length as a 4-byte big-endian integer.
+     */
+    @Override
+    public List<CubeSegmentation> segmentBatch(List<? extends EncodedImage> images) throws Exception {
+        var parts = new HttpRequest.BodyPublisher[images.size() * 2];
+        var payloadBytes = 0L;
+        for (var iImage = 0; iImage < images.size(); iImage++) {
+            var image = images.get(iImage);
+            var length = ByteBuffer.allocate(Integer.BYTES).putInt(image.length()).array();
+            parts[iImage * 2] = HttpRequest.BodyPublishers.ofByteArray(length);
+            parts[iImage * 2 + 1] = HttpRequest.BodyPublishers.ofByteArray(copyOf(image));
+            payloadBytes += Integer.BYTES + image.length();
+        }
+
+        var request = HttpRequest.newBuilder(this.batchEndpoint)
+                .timeout(this.requestTimeout)
+                .POST(HttpRequest.BodyPublishers.concat(parts))
+                .build();
+
+        var response = this.send(request, payloadBytes, this.batchLatencies);
+        if (response.statusCode() != 200) {
+            throw new IOException("server returned status " + response.statusCode() + ": " + response.body());
+        }
+
+        // Images the cube wasn't found in are null
+        return Arrays.asList(this.jsonMapper.readValue(response.body(), CubeSegmentation[].class));
+    }
+
+    /**
+     * @param latencies Recent latencies of this kind of call, which the
+     *                  call is recorded in and hedged against
+     */
+    private HttpResponse<String> send(HttpRequest request, long payloadBytes, RecentLatencies latencies) throws Exception {
+        if (!this.breaker.tryAcquire()) {
+            BREAKER_REJECTIONS.increment(this.rootEndpoint.toString());
+            throw new SegmenterUnavailableException(this.rootEndpoint);
+        }
+
+        HttpResponse<String> response;
+        try {
+            response = this.sendHedged(request, payloadBytes, latencies);
+        } catch (InterruptedException e) {
+            this.breaker.recordCancelled();
+            throw e;
+        } catch (Exception e) {
+            this.breaker.recordFailure();
+            throw e;
+        }
+
+        if (response.statusCode() >= 500) {
+            this.breaker.recordFailure();
+        } else {
+            this.breaker.recordSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * Sends the request, and sends it again if the first attempt takes
+     * longer than most recent calls. Whichever attempt gets a definitive
+     * answer first is used, so a single slow call doesn't hold up the scan.
+     * A server error only settles the call once both attempts are done.
+     */
+    private HttpResponse<String> sendHedged(HttpRequest request, long payloadBytes, RecentLatencies latencies) throws Exception {
+        var hedgeDelay = this.hedge ? latencies.percentile(HEDGE_PERCENTILE) : -1;
+        var primary = this.sendAsync(request, payloadBytes, latencies);
+        if (hedgeDelay < 0) {
+            return await(primary);
+        }
+
+        try {
+            return primary.get(hedgeDelay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Taking too long, hedge below
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            throw e;
+        }
+
+        var hedged = this.sendAsync(request, payloadBytes, latencies);
+        var winner = new CompletableFuture<CompletableFuture<HttpResponse<String>>>();
+        var pending = new AtomicInteger(2);
+        var answered = new AtomicReference<CompletableFuture<HttpResponse<String>>>();
+        for (var attempt : List.of(primary, hedged)) {
+            attempt.whenComplete((response, error) -> {
+                if (response != null && isDefinitive(response.statusCode())) {
+                    winner.complete(attempt);
+                    return;
+                }
+                if (response != null) {
+                    answered.compareAndSet(null, attempt);
+                }
+                // Neither attempt was definitive, so settle on a response
+                // the caller can report if there was one
+                if (pending.decrementAndGet() == 0) {
+                    var fallback = answered.get();
+                    if (fallback != null) {
+                        winner.complete(fallback);
+                    } else {
+                        winner.completeExceptionally(error);
+                    }
+                }
+            });
+        }
+
+        CompletableFuture<HttpResponse<String>> won;
+        try {
+            won = winner.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            hedged.cancel(true);
+            throw e;
+        }
+
+        if (won == hedged) {
+            primary.cancel(true);
+            HEDGES.increment("won");
+        } else {
+            hedged.cancel(true);
+            HEDGES.increment("lost");
+        }
+        return won.join();
+    }
+
+    /**
+     * @return Whether the segmenter gave an answer another attempt wouldn't
+     *         change: the segmentation, or that the cube isn't in the image
+     */
+    private static boolean isDefinitive(int status) {
+        return status == 200 || status == 422;
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request, long payloadBytes, RecentLatencies latencies) {
+        var event = new SegmenterCallEvent();
+        event.endpoint = request.uri().toString();
+        event.payloadBytes = payloadBytes;
+        event.begin();
+
+        var sendStart = System.nanoTime();
+        var response = this.httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        // Returns the original future, since cancelling a dependent one
+        // wouldn't abort the request
+        response.whenComplete((result, error) -> {
+            if (result != null) {
+                event.status = result.statusCode();
+                latencies.record(System.nanoTime() - sendStart);
+            }
+            event.commit();
+        });
+        return response;
+    }
+
+    /**
+     * Cancelled and hedged attempts can still be sending the body after the
+     * caller gives up on them, so they get their own copy rather than the
+     * upload buffer, which is reused as soon as the scan finishes
+     */
+    private static byte[] copyOf(EncodedImage image) {
+        return Arrays.copyOf(image.bytes(), image.length());
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        return e.getCause() instanceof Exception cause ? cause : e;
+    }
+
+    public URI rootEndpoint() {
+        return this.rootEndpoint;
+    }
+
     @Override
     public void close() {
         this.httpClient.close();
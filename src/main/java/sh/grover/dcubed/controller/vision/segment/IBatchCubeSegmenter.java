@@ -0,0 +1,16 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+
+import java.util.List;
+
+public interface IBatchCubeSegmenter {
+
+    /**
+     * Segments several images in one call
+     * @return The segmentation of each image, in the same order. An element
+     * is {@code null} if the cube wasn't found in that image.
+     */
+    List<CubeSegmentation> segmentBatch(List<? extends EncodedImage> images) throws Exception;
+}
@@ -1,9 +1,31 @@
 package sh.grover.dcubed.controller.vision.segment;
 
 import org.opencv.core.Mat;
+import sh.grover.dcubed.model.vision.EncodedImage;
 import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
 
+import java.util.concurrent.Future;
+
 public interface ICubeSegmenter {
 
-    CubeSegmentation segment(Mat image) throws Exception;
+    /**
+     * @return The points of the cube, in the coordinates of the image at its
+     * original size
+     */
+    CubeSegmentation segment(EncodedImage image) throws Exception;
+
+    /**
+     * Segments an image the caller is decoding as well, so a segmenter that
+     * needs the pixels can use the caller's copy instead of decoding again.
+     * Others ignore it.
+     * @param decoded Completes with the image as decoded by
+     *                {@link sh.grover.dcubed.util.ImageUtil#decode}, which
+     *                may be smaller than the original. Not to be changed or
+     *                released, and only valid until this returns.
+     * @return The points of the cube, in the coordinates of the image at its
+     * original size
+     */
+    default CubeSegmentation segment(EncodedImage image, Future<Mat> decoded) throws Exception {
+        return this.segment(image);
+    }
 }
@@ -0,0 +1,280 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.CpuLimiter;
+import sh.grover.dcubed.util.ImageUtil;
+import sh.grover.dcubed.util.MatScope;
+import sh.grover.dcubed.util.metrics.Stage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Segments the cube in-process instead of calling out to the Python
+ * segmenter. The bundled YOLO model finds the cube's bounding box, then the
+ * outline is cut out of the box with GrabCut and reduced to its six corners.
+ */
+public class OnnxCubeSegmenter implements ICubeSegmenter, AutoCloseable {
+
+    private static final int INPUT_SIZE = 640;
+    private static final int INPUT_FLOATS = 3 * INPUT_SIZE * INPUT_SIZE;
+    private static final double LETTERBOX_FILL = 114;
+    private static final float MIN_CONFIDENCE = 0.25f;
+
+    /**
+     * Images are decoded close to this size. The outline is found at
+     * {@link #SEGMENTATION_SMALLER_AXIS}, so there's no use decoding more.
+     */
+    private static final int DECODE_LONG_EDGE = 960;
+    /**
+     * Size the smaller axis is scaled to before finding the outline, so the
+     * epsilon of approxPolyDP gives consistent results
+     */
+    private static final int SEGMENTATION_SMALLER_AXIS = 480;
+    private static final int SEGMENTATION_BOUND_PADDING = 15;
+    private static final double OUTLINE_EPSILON = 15;
+    private static final int GRAB_CUT_ITERATIONS = 3;
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final String inputName;
+    private final ConcurrentLinkedQueue<FloatBuffer> idleInputs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param model Path to the YOLO bounding box model
+     */
+    public OnnxCubeSegmenter(Path model) throws OrtException {
+        this.environment = OrtEnvironment.getEnvironment();
+
+        // Scans are already run in parallel and bounded by CpuLimiter, so
+        // each inference sticks to the thread that holds the permit
+        try (var options = new OrtSession.SessionOptions()) {
+            options.setIntraOpNumThreads(1);
+            this.session = this.environment.createSession(model.toString(), options);
+        }
+        this.inputName = this.session.getInputNames().iterator().next();
+    }
+
+    @Override
+    public CubeSegmentation segment(EncodedImage image) throws Exception {
+        var decoded = ImageUtil.decode(image, DECODE_LONG_EDGE);
+        try {
+            return this.segmentDecoded(image, decoded);
+        } finally {
+            decoded.release();
+        }
+    }
+
+    /**
+     * Segments the caller's decoded copy, which is about the size this
+     * decodes to anyway, rather than decoding the image a second time
+     */
+    @Override
+    public CubeSegmentation segment(EncodedImage image, Future<Mat> decoded) throws Exception {
+        return this.segmentDecoded(image, decoded.get());
+    }
+
+    private CubeSegmentation segmentDecoded(EncodedImage image, Mat decoded) throws Exception {
+        CpuLimiter.acquire();
+        try {
+            var segmentStart = System.nanoTime();
+            var result = this.segment(decoded);
+            Stage.SEGMENT.recordSince(segmentStart);
+
+            // Points are expected in the coordinates of the original image
+            return result.scale(1 / ImageUtil.decodeScale(image, decoded));
+        } finally {
+            CpuLimiter.release();
+        }
+    }
+
+    private CubeSegmentation segment(Mat image) throws ColorScanException, OrtException {
+        var scaleToSegmentation = (double) SEGMENTATION_SMALLER_AXIS / Math.min(image.width(), image.height());
+        var scaled = new Mat();
+        Imgproc.resize(image, scaled, new Size(image.width() * scaleToSegmentation, image.height() * scaleToSegmentation));
+
+        try {
+            var bounds = this.predictBounds(scaled);
+            if (bounds == null) {
+                throw new ColorScanException("bounds were not found on image");
+            }
+
+            var outline = findOutline(scaled, bounds);
+            if (outline.length != 6) {
+                throw new ColorScanException("contour not reduced");
+            }
+
+            return CubeSegmentation.fromOutline(outline).scale(1 / scaleToSegmentation);
+        } finally {
+            scaled.release();
+        }
+    }
+
+    /**
+     * @return The box around the most confidently detected cube, or
+     * {@code null} if none was found
+     */
+    private Rect predictBounds(Mat image) throws OrtException {
+        var scale = Math.min((double) INPUT_SIZE / image.width(), (double) INPUT_SIZE / image.height());
+        var width = (int) Math.round(image.width() * scale);
+        var height = (int) Math.round(image.height() * scale);
+        var padX = (INPUT_SIZE - width) / 2;
+        var padY = (INPUT_SIZE - height) / 2;
+
+        var input = this.idleInputs.poll();
+        if (input == null) {
+            input = ByteBuffer.allocateDirect(INPUT_FLOATS * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+
+        try {
+            letterbox(image, width, height, padX, padY, input);
+
+            float[][] output;
+            try (var tensor = OnnxTensor.createTensor(this.environment, input, new long[]{1, 3, INPUT_SIZE, INPUT_SIZE});
+                 var result = this.session.run(Map.of(this.inputName, tensor))) {
+                // [1][4 + classes][anchors]
+                output = ((float[][][]) result.get(0).getValue())[0];
+            }
+
+            var best = -1;
+            var bestConfidence = MIN_CONFIDENCE;
+            for (var anchor = 0; anchor < output[0].length; anchor++) {
+                for (var row = 4; row < output.length; row++) {
+                    if (output[row][anchor] > bestConfidence) {
+                        best = anchor;
+                        bestConfidence = output[row][anchor];
+                    }
+                }
+            }
+            if (best == -1) {
+                return null;
+            }
+
+            var centerX = (output[0][best] - padX) / scale;
+            var centerY = (output[1][best] - padY) / scale;
+            var boxWidth = output[2][best] / scale;
+            var boxHeight = output[3][best] / scale;
+            var minX = (int) Math.max(0, centerX - boxWidth / 2);
+            var minY = (int) Math.max(0, centerY - boxHeight / 2);
+            var maxX = (int) Math.min(image.width(), centerX + boxWidth / 2);
+            var maxY = (int) Math.min(image.height(), centerY + boxHeight / 2);
+            if (maxX <= minX || maxY <= minY) {
+                return null;
+            }
+            return new Rect(minX, minY, maxX - minX, maxY - minY);
+        } finally {
+            this.idleInputs.offer(input);
+        }
+    }
+
+    /**
+     * Fits the image in the model's square input without changing its aspect
+     * ratio and writes it as normalized, planar RGB
+     */
+    private static void letterbox(Mat image, int width, int height, int padX, int padY, FloatBuffer input) {
+        var resized = new Mat();
+        Imgproc.resize(image, resized, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+
+        var boxed = new Mat();
+        var fill = new Scalar(LETTERBOX_FILL, LETTERBOX_FILL, LETTERBOX_FILL);
+        Core.copyMakeBorder(resized, boxed, padY, INPUT_SIZE - height - padY, padX, INPUT_SIZE - width - padX, Core.BORDER_CONSTANT, fill);
+        resized.release();
+
+        var pixels = new byte[INPUT_FLOATS];
+        boxed.get(0, 0, pixels);
+        boxed.release();
+
+        // BGR interleaved to RGB planes
+        var plane = INPUT_SIZE * INPUT_SIZE;
+        for (var pixel = 0; pixel < plane; pixel++) {
+            input.put(pixel, (pixels[pixel * 3 + 2] & 0xFF) / 255f);
+            input.put(plane + pixel, (pixels[pixel * 3 + 1] & 0xFF) / 255f);
+            input.put(2 * plane + pixel, (pixels[pixel * 3] & 0xFF) / 255f);
+        }
+    }
+
+    /**
+     * Cuts the cube out of its bounding box and simplifies its silhouette
+     * @return The corners of the silhouette. Any count other than 6 means
+     * the cube wasn't cleanly separated from the background.
+     */
+    private static Point[] findOutline(Mat image, Rect bounds) {
+        // Increasing bounding box size slightly increases segmentation
+        // accuracy. GrabCut also needs some background around the box.
+        var margin = SEGMENTATION_BOUND_PADDING * 2;
+        var regionX = Math.max(0, bounds.x - margin);
+        var regionY = Math.max(0, bounds.y - margin);
+        var region = new Rect(
+                regionX,
+                regionY,
+                Math.min(image.width(), bounds.x + bounds.width + margin) - regionX,
+                Math.min(image.height(), bounds.y + bounds.height + margin) - regionY
+        );
+        var foregroundX = Math.max(0, bounds.x - SEGMENTATION_BOUND_PADDING - regionX);
+        var foregroundY = Math.max(0, bounds.y - SEGMENTATION_BOUND_PADDING - regionY);
+        var foreground = new Rect(
+                foregroundX,
+                foregroundY,
+                Math.min(region.width, bounds.x + bounds.width + SEGMENTATION_BOUND_PADDING - regionX) - foregroundX,
+                Math.min(region.height, bounds.y + bounds.height + SEGMENTATION_BOUND_PADDING - regionY) - foregroundY
+        );
+
+        try (var mats = new MatScope()) {
+            var cropped = mats.track(image.submat(region));
+            var labels = mats.mat();
+            Imgproc.grabCut(cropped, labels, foreground, mats.mat(), mats.mat(), GRAB_CUT_ITERATIONS, Imgproc.GC_INIT_WITH_RECT);
+
+            var mask = mats.mat();
+            var probableMask = mats.mat();
+            Core.compare(labels, new Scalar(Imgproc.GC_FGD), mask, Core.CMP_EQ);
+            Core.compare(labels, new Scalar(Imgproc.GC_PR_FGD), probableMask, Core.CMP_EQ);
+            Core.bitwise_or(mask, probableMask, mask);
+
+            var contours = new ArrayList<MatOfPoint>();
+            Imgproc.findContours(mask, contours, mats.mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+            MatOfPoint largest = null;
+            var largestArea = 0.0;
+            for (var contour : contours) {
+                mats.track(contour);
+                var area = Imgproc.contourArea(contour);
+                if (area > largestArea) {
+                    largest = contour;
+                    largestArea = area;
+                }
+            }
+            if (largest == null) {
+                return new Point[0];
+            }
+
+            var approx = mats.track(new MatOfPoint2f());
+            Imgproc.approxPolyDP(mats.track(new MatOfPoint2f(largest.toArray())), approx, OUTLINE_EPSILON, true);
+            var outline = approx.toArray();
+            for (var point : outline) {
+                point.x += regionX;
+                point.y += regionY;
+            }
+            return outline;
+        }
+    }
+
+    @Override
+    public void close() throws OrtException {
+        this.session.close();
+    }
+}
@@ -0,0 +1,51 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of a call, so percentiles follow how the
+ * callee is doing now rather than since startup.
+ */
+class RecentLatencies {
+
+    private final long[] samples;
+    private final int minSamples;
+
+    // Guarded by this
+    private int count;
+    private int next;
+
+    /**
+     * @param size Number of latencies to keep
+     * @param minSamples Latencies needed before percentiles are reported
+     */
+    RecentLatencies(int size, int minSamples) {
+        this.samples = new long[size];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long nanos) {
+        this.samples[this.next] = nanos;
+        this.next = (this.next + 1) % this.samples.length;
+        this.count = Math.min(this.count + 1, this.samples.length);
+    }
+
+    /**
+     * @param percentile Between 0 and 1
+     * @return The latency, in nanoseconds, below which {@code percentile} of
+     * recent calls finished, or -1 if too few calls were recorded
+     */
+    long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (this.count < this.minSamples) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(this.samples, this.count);
+        }
+
+        Arrays.sort(sorted);
+        var index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)];
+    }
+}
@@ -0,0 +1,27 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("sh.grover.dcubed.SegmenterCall")
+@Label("Segmenter Call")
+@Category({"dCubed", "Scan"})
+@Description("Round trip to the segmentation service")
+@StackTrace(false)
+class SegmenterCallEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Payload Size")
+    @DataAmount
+    long payloadBytes;
+
+    @Label("Status")
+    @Description("HTTP status returned, or 0 if the request failed")
+    int status;
+}
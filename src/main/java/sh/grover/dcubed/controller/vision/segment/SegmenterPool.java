@@ -0,0 +1,169 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Gauge;
+import sh.grover.dcubed.util.metrics.Metrics;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Spreads calls across several segmenter replicas. Each call picks two
+ * replicas at random and goes to the one with fewer calls in flight (power
+ * of two choices), which avoids piling onto a slow replica without every
+ * call scanning every replica. A replica that fails several calls in a row
+ * is ejected for a while. Each replica has its own {@link HttpCubeSegmenter},
+ * and so its own connections.
+ */
+public class SegmenterPool implements ICubeSegmenter, IBatchCubeSegmenter, AutoCloseable {
+
+    private static final Counter EJECTIONS = Metrics.counter("dcubed_segmenter_ejections_total", "Times a segmenter was ejected from the pool after failing", "endpoint");
+    private static final Gauge OUTSTANDING = Metrics.gauge("dcubed_segmenter_outstanding", "Calls in flight to each segmenter", "endpoint");
+
+    private static final int DEFAULT_EJECT_AFTER_FAILURES = 3;
+    private static final Duration DEFAULT_EJECT_DURATION = Duration.ofSeconds(10);
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int ejectAfterFailures;
+    private final long ejectNanos;
+    private final LongSupplier nanoTime;
+
+    public SegmenterPool(List<URI> endpoints) {
+        this(endpoints.stream().map(HttpCubeSegmenter::new).toList(), DEFAULT_EJECT_AFTER_FAILURES, DEFAULT_EJECT_DURATION);
+    }
+
+    /**
+     * @param ejectAfterFailures Consecutive failed calls that eject a replica
+     * @param ejectDuration How long an ejected replica is left out. Once back,
+     *                      a single failure ejects it again.
+     */
+    public SegmenterPool(List<HttpCubeSegmenter> segmenters, int ejectAfterFailures, Duration ejectDuration) {
+        this(segmenters, ejectAfterFailures, ejectDuration, System::nanoTime);
+    }
+
+    SegmenterPool(List<HttpCubeSegmenter> segmenters, int ejectAfterFailures, Duration ejectDuration, LongSupplier nanoTime) {
+        if (segmenters.isEmpty()) {
+            throw new IllegalArgumentException("pool needs at least one segmenter");
+        }
+
+        for (var segmenter : segmenters) {
+            var endpoint = new Endpoint(segmenter);
+            this.endpoints.add(endpoint);
+            OUTSTANDING.set(segmenter.rootEndpoint().toString(), endpoint.outstanding::get);
+        }
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectNanos = ejectDuration.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public CubeSegmentation segment(EncodedImage image) throws Exception {
+        var endpoint = this.pick();
+        endpoint.outstanding.incrementAndGet();
+        try {
+            var segmentation = endpoint.segmenter.segment(image);
+            endpoint.consecutiveFailures.set(0);
+            return segmentation;
+        } catch (Exception e) {
+            this.recordFailure(endpoint, e);
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+
+    @Override
+    public List<CubeSegmentation> segmentBatch(List<? extends EncodedImage> images) throws Exception {
+        var endpoint = this.pick();
+        endpoint.outstanding.incrementAndGet();
+        try {
+            var segmentations = endpoint.segmenter.segmentBatch(images);
+            endpoint.consecutiveFailures.set(0);
+            return segmentations;
+        } catch (Exception e) {
+            this.recordFailure(endpoint, e);
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+
+    private Endpoint pick() {
+        var now = this.nanoTime.getAsLong();
+        var candidates = new ArrayList<Endpoint>(this.endpoints.size());
+        for (var endpoint : this.endpoints) {
+            if (!this.isEjected(endpoint, now)) {
+                candidates.add(endpoint);
+            }
+        }
+
+        // Better to keep trying than to fail every scan outright
+        if (candidates.isEmpty()) {
+            candidates.addAll(this.endpoints);
+        }
+
+        if (candidates.size() == 1) {
+            return candidates.getFirst();
+        }
+
+        var random = ThreadLocalRandom.current();
+        var first = random.nextInt(candidates.size());
+        var second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        var a = candidates.get(first);
+        var b = candidates.get(second);
+        return a.outstanding.get() <= b.outstanding.get() ? a : b;
+    }
+
+    private void recordFailure(Endpoint endpoint, Exception e) {
+        // The cube not being found says nothing about the replica's health
+        if (e instanceof ColorScanException && !(e instanceof SegmenterUnavailableException)) {
+            endpoint.consecutiveFailures.set(0);
+            return;
+        }
+
+        if (endpoint.consecutiveFailures.incrementAndGet() >= this.ejectAfterFailures) {
+            var now = this.nanoTime.getAsLong();
+            if (!this.isEjected(endpoint, now)) {
+                EJECTIONS.increment(endpoint.segmenter.rootEndpoint().toString());
+            }
+            // Nonzero, since zero means never ejected
+            endpoint.ejectedAt = now | 1;
+        }
+    }
+
+    private boolean isEjected(Endpoint endpoint, long now) {
+        var ejectedAt = endpoint.ejectedAt;
+        return ejectedAt != 0 && now - ejectedAt < this.ejectNanos;
+    }
+
+    @Override
+    public void close() {
+        for (var endpoint : this.endpoints) {
+            endpoint.segmenter.close();
+        }
+    }
+
+    private static class Endpoint {
+
+        private final HttpCubeSegmenter segmenter;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long ejectedAt;
+
+        private Endpoint(HttpCubeSegmenter segmenter) {
+            this.segmenter = segmenter;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import sh.grover.dcubed.model.vision.ColorScanException;
+
+import java.net.URI;
+
+/**
+ * Thrown without contacting a segmenter that's known to be failing
+ */
+public class SegmenterUnavailableException extends ColorScanException {
+
+    public SegmenterUnavailableException(URI endpoint) {
+        super("segmenter unavailable: " + endpoint);
+    }
+}
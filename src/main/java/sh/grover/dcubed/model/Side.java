@@ -30,6 +30,13 @@ public class Side {
         this.encoded = encoded;
     }
 
+    /**
+     * Restores a side from the value previously returned by {@link #encoded()}
+     */
+    public static Side fromEncoded(long encoded) {
+        return new Side(encoded);
+    }
+
     public int face(int faceIndex) {
         return (int) (this.encoded >>> ((7 - faceIndex) * 8)) & 0xFF;
     }
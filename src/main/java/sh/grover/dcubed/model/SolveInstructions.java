@@ -17,9 +17,16 @@ public record SolveInstructions(
     }
 
     public void runStep(AbstractSolveStep step) {
+        var event = new SolveStepEvent();
+        event.begin();
+
         this.stageIndices.put(step.stepId(), this.moves.size());
         step.solve();
 
+        event.stepId = step.stepId();
+        event.moveCount = step.moves().size();
+        event.commit();
+
         for (var entry : step.markers().entrySet()) {
             this.markers.put(entry.getKey() + this.moves.size(), entry.getValue());
         }
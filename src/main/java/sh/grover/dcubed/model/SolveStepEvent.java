@@ -0,0 +1,21 @@
+package sh.grover.dcubed.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("sh.grover.dcubed.SolveStep")
+@Label("Solve Step")
+@Category({"dCubed", "Solve"})
+@Description("One step of solving a cube")
+@StackTrace(false)
+class SolveStepEvent extends jdk.jfr.Event {
+
+    @Label("Step")
+    String stepId;
+
+    @Label("Moves")
+    int moveCount;
+}
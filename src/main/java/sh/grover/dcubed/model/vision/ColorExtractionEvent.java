@@ -0,0 +1,19 @@
+package sh.grover.dcubed.model.vision;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("sh.grover.dcubed.ColorExtraction")
+@Label("Color Extraction")
+@Category({"dCubed", "Scan"})
+@Description("Classification of the stickers on the three visible faces")
+@StackTrace(false)
+class ColorExtractionEvent extends jdk.jfr.Event {
+
+    @Label("Unclassified Stickers")
+    @Description("Stickers that matched no color and defaulted to white")
+    int unclassified;
+}
@@ -0,0 +1,48 @@
+package sh.grover.dcubed.model.vision;
+
+import org.opencv.core.Mat;
+import sh.grover.dcubed.util.XxHash64;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An image as it was uploaded, still in its original encoding (e.g. JPEG).
+ */
+public interface EncodedImage {
+
+    /**
+     * @return A buffer starting with the encoded image. May be longer than
+     * the image, see {@link #length()}.
+     */
+    byte[] bytes();
+
+    int length();
+
+    /**
+     * Copies the encoded bytes into native memory for decoding
+     * @return A single-row {@link Mat} of the encoded bytes
+     */
+    Mat toMat();
+
+    /**
+     * @return A hash of the encoded bytes, the same for identical uploads
+     */
+    default long contentHash() {
+        return XxHash64.hash(this.bytes(), 0, this.length(), 0);
+    }
+
+    /**
+     * @return A SHA-256 digest of the encoded bytes. Slower than
+     * {@link #contentHash()}, but identical only for identical uploads.
+     */
+    default byte[] contentDigest() {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(this.bytes(), 0, this.length());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
@@ -5,12 +5,15 @@ import org.opencv.imgproc.Imgproc;
 import sh.grover.dcubed.model.Cube;
 import sh.grover.dcubed.model.FaceColor;
 import sh.grover.dcubed.model.Side;
-import sh.grover.dcubed.util.DrawUtil;
+import sh.grover.dcubed.util.CpuPool;
+import sh.grover.dcubed.util.DebugCapture;
+
+import java.util.List;
+import java.util.function.Supplier;
 
 public class FaceColorExtractor {
 
     private static final int ANNOTATION_CIRCLE_RADIUS = 10;
-    private static final int COLOR_NOT_FOUND = -1;
 
     private static final Scalar[] FACE_COLORS_TO_BGR = new Scalar[] {
             new Scalar(255, 255, 255), // white
@@ -21,70 +24,114 @@ public class FaceColorExtractor {
             new Scalar(255, 0, 0), // blue
     };
 
-    private final boolean debug;
     private final Side[] result = new Side[6];
-    private Mat currentAnnotation;
+    private int unclassified;
+
+    /**
+     * Samples the three faces in parallel. Annotated faces are written to
+     * {@link DebugCapture} if the current scan is captured.
+     */
+    public FaceColorExtractor(Mat top, Mat left, Mat right) {
+        var event = new ColorExtractionEvent();
+        event.begin();
+
+        var means = CpuPool.invokeAll(List.<Supplier<int[]>>of(
+                () -> sampleStickers(top),
+                () -> sampleStickers(left),
+                () -> sampleStickers(right)
+        ));
+        var topColors = this.extractColors(top, means.get(0), "top");
+        var leftColors = this.extractColors(left, means.get(1), "left");
+        var rightColors = this.extractColors(right, means.get(2), "right");
+
+        event.unclassified = this.unclassified;
+        event.commit();
+
+        this.processSides(topColors, leftColors, rightColors);
+    }
 
-    public FaceColorExtractor(boolean debug, Mat top, Mat left, Mat right) {
-        this.debug = debug;
-        var topColors = this.extractColors(top, "top");
-        var leftColors = this.extractColors(left, "left");
-        var rightColors = this.extractColors(right, "right");
+    /**
+     * Extracts colors from stickers that were already sampled, e.g. with
+     * {@link StickerSampler#sampleMapped}
+     * @param topMeans Mean BGR of each sticker of the top face, 3 values per
+     *                 sticker in row-major order
+     */
+    public FaceColorExtractor(int[] topMeans, int[] leftMeans, int[] rightMeans) {
+        var event = new ColorExtractionEvent();
+        event.begin();
 
-        this.processSide(topColors, leftColors, 2);
-        this.processSide(leftColors, topColors, 0);
-        this.processSide(rightColors, topColors, 0);
+        var topColors = this.classifyStickers(topMeans);
+        var leftColors = this.classifyStickers(leftMeans);
+        var rightColors = this.classifyStickers(rightMeans);
+
+        event.unclassified = this.unclassified;
+        event.commit();
+
+        this.processSides(topColors, leftColors, rightColors);
     }
 
     public Side[] result() {
         return this.result;
     }
 
-    private int[] extractColors(Mat image, String debugName) {
-        if (this.debug) {
-            this.currentAnnotation = new Mat();
-            image.copyTo(this.currentAnnotation);
+    private static int[] sampleStickers(Mat image) {
+        // One copy out of native memory per face, no per-sticker submats
+        var continuous = image.isContinuous() ? image : image.clone();
+        var width = image.width();
+        var channels = image.channels();
+        var pixels = new byte[width * image.height() * channels];
+        continuous.get(0, 0, pixels);
+        if (continuous != image) {
+            continuous.release();
         }
 
-        var converted = new Mat();
-        image.convertTo(converted, CvType.CV_32F);
-
-        var faceWidth = image.width() / 3;
-        var faceHeight = image.height() / 3;
-        var cropped = new Mat();
-
-        var colors = new int[9];
-        for (var x = 0; x < 3; x++) {
-            for (var y = 0; y < 3; y++) {
-                var range = new Rect(x * faceWidth, y * faceHeight, faceWidth, faceHeight);
-
-                converted.submat(range).copyTo(cropped);
-                var annotationPos = new Point(range.x + ANNOTATION_CIRCLE_RADIUS, range.y + ANNOTATION_CIRCLE_RADIUS);
-                var color = this.getDominantFaceColor(cropped, annotationPos);
-                colors[y * 3 + x] = color;
+        var means = new int[27];
+        StickerSampler.sample(pixels, width, image.height(), channels, means);
+        return means;
+    }
 
-                if (this.currentAnnotation != null) {
-                    Imgproc.circle(this.currentAnnotation, new Point(range.br().x - ANNOTATION_CIRCLE_RADIUS, range.br().y - ANNOTATION_CIRCLE_RADIUS), 10, FACE_COLORS_TO_BGR[color], -1);
+    private int[] extractColors(Mat image, int[] means, String debugName) {
+        var colors = this.classifyStickers(means);
+
+        if (DebugCapture.isCapturing()) {
+            var annotation = new Mat();
+            image.copyTo(annotation);
+
+            var faceWidth = image.width() / 3;
+            var faceHeight = image.height() / 3;
+            for (var x = 0; x < 3; x++) {
+                for (var y = 0; y < 3; y++) {
+                    var sticker = (y * 3 + x) * 3;
+                    var mean = new Scalar(means[sticker], means[sticker + 1], means[sticker + 2]);
+                    var range = new Rect(x * faceWidth, y * faceHeight, faceWidth, faceHeight);
+                    Imgproc.circle(annotation, new Point(range.x + ANNOTATION_CIRCLE_RADIUS, range.y + ANNOTATION_CIRCLE_RADIUS), ANNOTATION_CIRCLE_RADIUS, mean, -1);
+                    Imgproc.circle(annotation, new Point(range.br().x - ANNOTATION_CIRCLE_RADIUS, range.br().y - ANNOTATION_CIRCLE_RADIUS), 10, FACE_COLORS_TO_BGR[colors[y * 3 + x]], -1);
                 }
             }
-        }
 
-        if (this.currentAnnotation != null) {
-            DrawUtil.debugWrite(this.currentAnnotation, debugName);
+            DebugCapture.write(annotation, debugName);
+            annotation.release();
         }
         return colors;
     }
 
-    private int getDominantFaceColor(Mat image, Point annotationCirclePos) {
-        var color = image.get(image.width() / 2, image.height() / 2);
-        var estimate = closestFaceColor(color);
-        if (estimate == -1) {
-            estimate = FaceColor.WHITE;
-        }
-        if (this.currentAnnotation != null) {
-            Imgproc.circle(this.currentAnnotation, annotationCirclePos, ANNOTATION_CIRCLE_RADIUS, new Scalar(color), -1);
+    private int[] classifyStickers(int[] means) {
+        var colors = new int[9];
+        for (var sticker = 0; sticker < 9; sticker++) {
+            var color = StickerClassifier.classify(means[sticker * 3], means[sticker * 3 + 1], means[sticker * 3 + 2]);
+            if (color == StickerClassifier.COLOR_NOT_FOUND) {
+                color = FaceColor.WHITE;
+                this.unclassified++;
+            }
+            colors[sticker] = color;
         }
-        return estimate;
+        return colors;
+    }
+
+    private void processSides(int[] topColors, int[] leftColors, int[] rightColors) {
+        this.processSide(topColors, leftColors, 2);
+        this.processSide(leftColors, topColors, 0);
+        this.processSide(rightColors, topColors, 0);
     }
 
     private void processSide(int[] scanned, int[] adjacentScanned, int adjacentConnectionIndex) {
@@ -103,54 +150,4 @@ public class FaceColorExtractor {
         }
         this.result[centerColor] = Side.from3x3(scanned).rotated(connectionIndex - adjacentConnectionIndex);
     }
-
-    private static int closestFaceColor(double[] color) {
-        var hsv = bgrToHsv(color);
-        var hue = hsv[0] / 2;
-        var saturation = hsv[1];
-
-        if (saturation < 0.2) {
-            return FaceColor.WHITE;
-        }
-
-        if (hue < 7 || hue > 165) {
-            return FaceColor.RED;
-        }
-
-        if (hue < 19) {
-            return FaceColor.ORANGE;
-        }
-
-        if (hue < 38) {
-            return FaceColor.YELLOW;
-        }
-
-        if (hue < 80) {
-            return FaceColor.GREEN;
-        }
-
-        if (hue < 125) {
-            return FaceColor.BLUE;
-        }
-
-        return COLOR_NOT_FOUND;
-    }
-
-    private static double[] bgrToHsv(double[] color) {
-        color = removeAlphaChannel(color);
-        var dst = new Mat();
-        var src = new Mat(1, 1, CvType.CV_32FC3);
-        src.put(0, 0, color);
-        Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2HSV);
-        return dst.get(0, 0);
-    }
-
-    private static double[] removeAlphaChannel(double[] color) {
-        if (color.length == 4) {
-            return new double[] { color[0], color[1], color[2] };
-        } else if (color.length != 3) {
-            throw new IllegalArgumentException("color was not RGBA or RGB");
-        }
-        return color;
-    }
 }
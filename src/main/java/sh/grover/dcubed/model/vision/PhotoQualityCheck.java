@@ -0,0 +1,171 @@
+package sh.grover.dcubed.model.vision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import sh.grover.dcubed.util.ImageUtil;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Metrics;
+import sh.grover.dcubed.util.metrics.Stage;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Rejects photos that are too blurry or badly exposed to scan, judged from a
+ * small grayscale copy before the segmenter is called. Otherwise they'd go
+ * through every step of a scan only to fail, or worse, give wrong colors.
+ * <br>
+ * Sharpness is the variance of the image's Laplacian, which is low when
+ * there are no sharp edges. Exposure is the fraction of pixels clipped to
+ * black or white.
+ */
+public class PhotoQualityCheck {
+
+    private static final Counter REJECTIONS = Metrics.counter("dcubed_photo_rejections_total", "Photos rejected before segmentation for being unusable", "problem");
+
+    /**
+     * Long edge of the grayscale copy. Thresholds depend on it, since
+     * shrinking an image sharpens it.
+     */
+    private static final int PREVIEW_LONG_EDGE = 512;
+    private static final int DARK_LEVEL = 10;
+    private static final int BRIGHT_LEVEL = 245;
+
+    public static final double DEFAULT_MIN_SHARPNESS = 10;
+    public static final double DEFAULT_MAX_DARK_FRACTION = 0.75;
+    public static final double DEFAULT_MAX_BRIGHT_FRACTION = 0.5;
+
+    private final double minSharpness;
+    private final double maxDarkFraction;
+    private final double maxBrightFraction;
+
+    public PhotoQualityCheck() {
+        this(DEFAULT_MIN_SHARPNESS, DEFAULT_MAX_DARK_FRACTION, DEFAULT_MAX_BRIGHT_FRACTION);
+    }
+
+    /**
+     * @param minSharpness Lowest variance of the Laplacian of an accepted
+     *                     photo, measured at {@link #PREVIEW_LONG_EDGE}
+     * @param maxDarkFraction Highest fraction of pixels that may be at most
+     *                        {@link #DARK_LEVEL}
+     * @param maxBrightFraction Highest fraction of pixels that may be at
+     *                          least {@link #BRIGHT_LEVEL}
+     */
+    public PhotoQualityCheck(double minSharpness, double maxDarkFraction, double maxBrightFraction) {
+        this.minSharpness = minSharpness;
+        this.maxDarkFraction = maxDarkFraction;
+        this.maxBrightFraction = maxBrightFraction;
+    }
+
+    /**
+     * @throws PhotoQualityException If the photo is unusable
+     * @throws IOException If the image can't be decoded
+     */
+    public void check(EncodedImage image) throws PhotoQualityException, IOException {
+        var decoded = ImageUtil.decodeGrayscale(image, PREVIEW_LONG_EDGE, Stage.QUALITY);
+        var checkStart = System.nanoTime();
+        var gray = toPreviewSize(decoded);
+        var width = gray.width();
+        var height = gray.height();
+        var pixels = new byte[width * height];
+        gray.get(0, 0, pixels);
+        gray.release();
+
+        try {
+            this.check(pixels, width, height);
+        } catch (PhotoQualityException e) {
+            REJECTIONS.increment(e.problem().code());
+            throw e;
+        } finally {
+            Stage.QUALITY.recordSince(checkStart);
+        }
+    }
+
+    /**
+     * Scales the decoded image to exactly {@link #PREVIEW_LONG_EDGE}, since
+     * decoding only shrinks by powers of two and sharpness would otherwise
+     * be measured at a different scale for each photo size
+     * @return The scaled image, {@code decoded} having been released, or
+     * {@code decoded} itself if it's already the right size
+     */
+    private static Mat toPreviewSize(Mat decoded) {
+        var longEdge = Math.max(decoded.width(), decoded.height());
+        if (longEdge == PREVIEW_LONG_EDGE) {
+            return decoded;
+        }
+
+        var scale = (double) PREVIEW_LONG_EDGE / longEdge;
+        var width = Math.max(1, (int) Math.round(decoded.width() * scale));
+        var height = Math.max(1, (int) Math.round(decoded.height() * scale));
+        var resized = new Mat();
+        Imgproc.resize(decoded, resized, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        decoded.release();
+        return resized;
+    }
+
+    /**
+     * @param gray One byte per pixel, in row-major order
+     */
+    void check(byte[] gray, int width, int height) throws PhotoQualityException {
+        // Exposure first, since a dark photo has no edges either and more
+        // light is what would fix it
+        var dark = 0;
+        var bright = 0;
+        for (var pixel = 0; pixel < width * height; pixel++) {
+            var value = gray[pixel] & 0xFF;
+            if (value <= DARK_LEVEL) {
+                dark++;
+            } else if (value >= BRIGHT_LEVEL) {
+                bright++;
+            }
+        }
+
+        var darkFraction = (double) dark / (width * height);
+        if (darkFraction > this.maxDarkFraction) {
+            throw new PhotoQualityException(PhotoQualityException.Problem.UNDEREXPOSED, format("%.0f%% of photo is black", darkFraction * 100));
+        }
+        var brightFraction = (double) bright / (width * height);
+        if (brightFraction > this.maxBrightFraction) {
+            throw new PhotoQualityException(PhotoQualityException.Problem.OVEREXPOSED, format("%.0f%% of photo is white", brightFraction * 100));
+        }
+
+        var sharpness = laplacianVariance(gray, width, height);
+        if (sharpness < this.minSharpness) {
+            throw new PhotoQualityException(PhotoQualityException.Problem.BLURRY, format("photo sharpness %.1f below %.1f", sharpness, this.minSharpness));
+        }
+    }
+
+    /**
+     * Variance of the 4-neighbour Laplacian over the pixels that have all
+     * four neighbours, the same as OpenCV's {@code Laplacian} with a kernel
+     * size of 1
+     */
+    static double laplacianVariance(byte[] gray, int width, int height) {
+        if (width < 3 || height < 3) {
+            return 0;
+        }
+
+        long sum = 0;
+        long sumOfSquares = 0;
+        for (var y = 1; y < height - 1; y++) {
+            var row = y * width;
+            for (var x = 1; x < width - 1; x++) {
+                var index = row + x;
+                var laplacian = (gray[index - 1] & 0xFF) + (gray[index + 1] & 0xFF)
+                        + (gray[index - width] & 0xFF) + (gray[index + width] & 0xFF)
+                        - 4 * (gray[index] & 0xFF);
+                sum += laplacian;
+                sumOfSquares += (long) laplacian * laplacian;
+            }
+        }
+
+        var count = (double) (width - 2) * (height - 2);
+        var mean = sum / count;
+        return sumOfSquares / count - mean * mean;
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+}
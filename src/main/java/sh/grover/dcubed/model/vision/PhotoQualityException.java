@@ -0,0 +1,39 @@
+package sh.grover.dcubed.model.vision;
+
+/**
+ * Thrown when a photo is rejected before scanning because no scan of it
+ * could be trusted
+ */
+public class PhotoQualityException extends ColorScanException {
+
+    public enum Problem {
+        BLURRY("photo_blurry"),
+        UNDEREXPOSED("photo_underexposed"),
+        OVEREXPOSED("photo_overexposed");
+
+        private final String code;
+
+        Problem(String code) {
+            this.code = code;
+        }
+
+        /**
+         * @return Identifier sent to clients, so they can tell the user how
+         * to take a better photo
+         */
+        public String code() {
+            return this.code;
+        }
+    }
+
+    private final Problem problem;
+
+    public PhotoQualityException(Problem problem, String message) {
+        super(message);
+        this.problem = problem;
+    }
+
+    public Problem problem() {
+        return this.problem;
+    }
+}
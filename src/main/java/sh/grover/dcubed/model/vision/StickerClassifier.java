@@ -0,0 +1,104 @@
+package sh.grover.dcubed.model.vision;
+
+import sh.grover.dcubed.model.FaceColor;
+
+/**
+ * Maps a sticker's BGR color to a face color. Every color is quantized to
+ * 5 bits per channel and looked up in a 32 KB table, built once from the
+ * hue and saturation thresholds in {@link #classifyHsv}, so classifying a
+ * sticker costs an array read.
+ */
+class StickerClassifier {
+
+    static final int COLOR_NOT_FOUND = -1;
+
+    private static final int BITS = 5;
+    private static final int DROPPED_BITS = 8 - BITS;
+    private static final byte[] TABLE = buildTable();
+
+    /**
+     * @param b Blue, 0-255
+     * @param g Green, 0-255
+     * @param r Red, 0-255
+     * @return The face color, or {@link #COLOR_NOT_FOUND}
+     */
+    static int classify(int b, int g, int r) {
+        return TABLE[(b >> DROPPED_BITS) << (BITS * 2) | (g >> DROPPED_BITS) << BITS | (r >> DROPPED_BITS)];
+    }
+
+    /**
+     * Classifies a color exactly, without quantizing it. Converts to HSV the
+     * same way OpenCV does for floating point images: hue in degrees,
+     * saturation from 0 to 1.
+     */
+    static int classifyExact(double b, double g, double r) {
+        var value = Math.max(Math.max(b, g), r);
+        var delta = value - Math.min(Math.min(b, g), r);
+        var saturation = value == 0 ? 0 : delta / value;
+
+        double hue;
+        if (delta == 0) {
+            hue = 0;
+        } else if (value == r) {
+            hue = 60 * (g - b) / delta;
+        } else if (value == g) {
+            hue = 120 + 60 * (b - r) / delta;
+        } else {
+            hue = 240 + 60 * (r - g) / delta;
+        }
+        if (hue < 0) {
+            hue += 360;
+        }
+
+        return classifyHsv(hue / 2, saturation);
+    }
+
+    /**
+     * @param hue 0-180, as in OpenCV's 8-bit HSV
+     * @param saturation 0-1
+     */
+    private static int classifyHsv(double hue, double saturation) {
+        if (saturation < 0.2) {
+            return FaceColor.WHITE;
+        }
+
+        if (hue < 7 || hue > 165) {
+            return FaceColor.RED;
+        }
+
+        if (hue < 19) {
+            return FaceColor.ORANGE;
+        }
+
+        if (hue < 38) {
+            return FaceColor.YELLOW;
+        }
+
+        if (hue < 80) {
+            return FaceColor.GREEN;
+        }
+
+        if (hue < 125) {
+            return FaceColor.BLUE;
+        }
+
+        return COLOR_NOT_FOUND;
+    }
+
+    private static byte[] buildTable() {
+        var levels = 1 << BITS;
+        var table = new byte[levels * levels * levels];
+        var half = 1 << (DROPPED_BITS - 1);
+
+        for (var b = 0; b < levels; b++) {
+            for (var g = 0; g < levels; g++) {
+                for (var r = 0; r < levels; r++) {
+                    // Each entry covers a cube of colors, classified by its center
+                    var color = classifyExact((b << DROPPED_BITS) + half, (g << DROPPED_BITS) + half, (r << DROPPED_BITS) + half);
+                    table[b << (BITS * 2) | g << BITS | r] = (byte) color;
+                }
+            }
+        }
+        return table;
+    }
+}
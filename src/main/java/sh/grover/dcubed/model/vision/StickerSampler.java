@@ -0,0 +1,154 @@
+package sh.grover.dcubed.model.vision;
+
+import sh.grover.dcubed.util.Homography;
+
+/**
+ * Averages the color of each sticker on a face. A single pixel is easily
+ * thrown off by glare, noise or the black gap between stickers, so the mean
+ * of an inner window of each sticker is used instead. The face is turned
+ * into a summed-area table once, after which each window's sum takes four
+ * reads regardless of its size.
+ */
+public class StickerSampler {
+
+    /**
+     * Fraction of a sticker's width and height that's averaged, centered on
+     * the sticker. Leaves out the edges, where the stickers meet the gaps
+     * between them and warping is least accurate.
+     */
+    private static final double INNER_WINDOW = 0.5;
+
+    /**
+     * @param pixels Interleaved pixels of the face, with at least 3 channels
+     *               in BGR order
+     * @param colors Receives the mean BGR of each sticker, 3 values per
+     *               sticker in row-major order
+     */
+    public static void sample(byte[] pixels, int width, int height, int channels, int[] colors) {
+        var stride = width + 1;
+        // Each entry holds the per-channel sums of every pixel above and to
+        // the left of it, with a zero row and column in front
+        var table = new int[stride * (height + 1) * 3];
+        for (var y = 0; y < height; y++) {
+            int rowB = 0, rowG = 0, rowR = 0;
+            for (var x = 0; x < width; x++) {
+                var pixel = (y * width + x) * channels;
+                rowB += pixels[pixel] & 0xFF;
+                rowG += pixels[pixel + 1] & 0xFF;
+                rowR += pixels[pixel + 2] & 0xFF;
+
+                var entry = ((y + 1) * stride + x + 1) * 3;
+                var above = entry - stride * 3;
+                table[entry] = table[above] + rowB;
+                table[entry + 1] = table[above + 1] + rowG;
+                table[entry + 2] = table[above + 2] + rowR;
+            }
+        }
+
+        var stickerWidth = width / 3;
+        var stickerHeight = height / 3;
+        var windowWidth = Math.max(1, (int) (stickerWidth * INNER_WINDOW));
+        var windowHeight = Math.max(1, (int) (stickerHeight * INNER_WINDOW));
+        var area = windowWidth * windowHeight;
+
+        for (var row = 0; row < 3; row++) {
+            for (var col = 0; col < 3; col++) {
+                var left = col * stickerWidth + (stickerWidth - windowWidth) / 2;
+                var top = row * stickerHeight + (stickerHeight - windowHeight) / 2;
+                var topLeft = (top * stride + left) * 3;
+                var topRight = (top * stride + left + windowWidth) * 3;
+                var bottomLeft = ((top + windowHeight) * stride + left) * 3;
+                var bottomRight = ((top + windowHeight) * stride + left + windowWidth) * 3;
+
+                var sticker = (row * 3 + col) * 3;
+                for (var channel = 0; channel < 3; channel++) {
+                    var sum = table[bottomRight + channel] - table[topRight + channel] - table[bottomLeft + channel] + table[topLeft + channel];
+                    colors[sticker + channel] = sum / area;
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples the same windows as {@link #sample}, but of a face that was
+     * never warped. Each pixel of a window is mapped into the source image
+     * and bilinearly interpolated, as warping would have, so only the pixels
+     * that end up averaged are computed.
+     * @param pixels Interleaved pixels of the source image, with at least 3
+     *               channels in BGR order
+     * @param faceToSource Maps a pixel of the {@code faceWidth} by
+     *                     {@code faceHeight} face into the source image
+     * @param colors Receives the mean BGR of each sticker, 3 values per
+     *               sticker in row-major order
+     */
+    public static void sampleMapped(byte[] pixels, int width, int height, int channels, Homography faceToSource, int faceWidth, int faceHeight, int[] colors) {
+        var stickerWidth = faceWidth / 3;
+        var stickerHeight = faceHeight / 3;
+        var windowWidth = Math.max(1, (int) (stickerWidth * INNER_WINDOW));
+        var windowHeight = Math.max(1, (int) (stickerHeight * INNER_WINDOW));
+        var area = windowWidth * windowHeight;
+
+        for (var row = 0; row < 3; row++) {
+            for (var col = 0; col < 3; col++) {
+                var left = col * stickerWidth + (stickerWidth - windowWidth) / 2;
+                var top = row * stickerHeight + (stickerHeight - windowHeight) / 2;
+
+                // Summed in place, then divided into the mean
+                var sticker = (row * 3 + col) * 3;
+                colors[sticker] = 0;
+                colors[sticker + 1] = 0;
+                colors[sticker + 2] = 0;
+                for (var y = top; y < top + windowHeight; y++) {
+                    for (var x = left; x < left + windowWidth; x++) {
+                        // Bilinear interpolation, treating pixels outside the
+                        // image as black like a warp with a constant border
+                        // does. The neighbours and weights are shared by all
+                        // three channels.
+                        var sourceX = faceToSource.mapX(x, y);
+                        var sourceY = faceToSource.mapY(x, y);
+                        var x0 = (int) Math.floor(sourceX);
+                        var y0 = (int) Math.floor(sourceY);
+                        var fx = sourceX - x0;
+                        var fy = sourceY - y0;
+
+                        var topLeft = index(width, height, channels, x0, y0);
+                        var topRight = index(width, height, channels, x0 + 1, y0);
+                        var bottomLeft = index(width, height, channels, x0, y0 + 1);
+                        var bottomRight = index(width, height, channels, x0 + 1, y0 + 1);
+                        var topLeftWeight = (1 - fx) * (1 - fy);
+                        var topRightWeight = fx * (1 - fy);
+                        var bottomLeftWeight = (1 - fx) * fy;
+                        var bottomRightWeight = fx * fy;
+
+                        for (var channel = 0; channel < 3; channel++) {
+                            // Rounded like a warped 8-bit image's
+                            colors[sticker + channel] += (int) Math.round(value(pixels, topLeft, channel) * topLeftWeight
+                                    + value(pixels, topRight, channel) * topRightWeight
+                                    + value(pixels, bottomLeft, channel) * bottomLeftWeight
+                                    + value(pixels, bottomRight, channel) * bottomRightWeight);
+                        }
+                    }
+                }
+
+                colors[sticker] /= area;
+                colors[sticker + 1] /= area;
+                colors[sticker + 2] /= area;
+            }
+        }
+    }
+
+    /**
+     * @return Index of the pixel's first channel, or -1 if it's outside the
+     * image
+     */
+    private static int index(int width, int height, int channels, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        return (y * width + x) * channels;
+    }
+
+    private static int value(byte[] pixels, int index, int channel) {
+        return index < 0 ? 0 : pixels[index + channel] & 0xFF;
+    }
+}
@@ -12,6 +12,112 @@ public record CubeSegmentation(
     Point topRight,
     Point center
 ) {
+    /**
+     * Smallest fraction of the image the outline may cover. Any smaller and
+     * the stickers are too few pixels to sample.
+     */
+    private static final double MIN_AREA_FRACTION = 0.01;
+
+    /**
+     * Labels the corners of the cube's outline
+     * @param outline The six corners of the cube's silhouette, in either
+     *                winding order
+     * @return The segmentation, with the center estimated from the outline
+     */
+    public static CubeSegmentation fromOutline(Point[] outline) {
+        if (outline.length != 6) {
+            throw new IllegalArgumentException("outline must have 6 points, got " + outline.length);
+        }
+
+        // Shoelace formula. In image coordinates (y down), going
+        // top -> topLeft -> bottomLeft -> ... has a negative signed area.
+        var signedArea = 0.0;
+        for (var i = 0; i < 6; i++) {
+            var a = outline[i];
+            var b = outline[(i + 1) % 6];
+            signedArea += a.x * b.y - b.x * a.y;
+        }
+        var step = signedArea < 0 ? 1 : 5;
+
+        // "Top" is lowest y because the top of the image is y=0
+        var top = 0;
+        for (var i = 1; i < 6; i++) {
+            if (outline[i].y < outline[top].y) {
+                top = i;
+            }
+        }
+
+        var ordered = new Point[6];
+        for (var i = 0; i < 6; i++) {
+            ordered[i] = outline[(top + i * step) % 6];
+        }
+
+        var topPoint = ordered[0];
+        var topLeft = ordered[1];
+        var bottomLeft = ordered[2];
+        var bottom = ordered[3];
+        var bottomRight = ordered[4];
+        var topRight = ordered[5];
+
+        // Each visible face is roughly a parallelogram with the center as its
+        // missing corner. Averaging the three guesses evens out perspective.
+        var center = new Point(
+                (topLeft.x + topRight.x - topPoint.x + topLeft.x + bottom.x - bottomLeft.x + topRight.x + bottom.x - bottomRight.x) / 3,
+                (topLeft.y + topRight.y - topPoint.y + topLeft.y + bottom.y - bottomLeft.y + topRight.y + bottom.y - bottomRight.y) / 3
+        );
+
+        return new CubeSegmentation(topPoint, topLeft, bottomLeft, bottom, bottomRight, topRight, center);
+    }
+
+    /**
+     * Checks that points found elsewhere, e.g. by a client, could be a cube:
+     * every point is inside the image, the outline is a convex hexagon in
+     * the expected order, the center is inside it, and it isn't tiny
+     */
+    public boolean isPlausible(double imageWidth, double imageHeight) {
+        var outline = this.outline();
+        for (var point : outline) {
+            if (!isInside(point, imageWidth, imageHeight)) {
+                return false;
+            }
+        }
+        if (!isInside(this.center, imageWidth, imageHeight)) {
+            return false;
+        }
+
+        // In image coordinates (y down) the outline turns the same way as
+        // fromOutline orders it, so every corner turns with a negative cross
+        // product. A corner turning the other way is concave or out of order.
+        var twiceArea = 0.0;
+        for (var i = 0; i < 6; i++) {
+            var a = outline[i];
+            var b = outline[(i + 1) % 6];
+            var c = outline[(i + 2) % 6];
+            if (cross(a, b, c) >= 0 || cross(a, b, this.center) >= 0) {
+                return false;
+            }
+            twiceArea -= a.x * b.y - b.x * a.y;
+        }
+
+        return twiceArea / 2 >= imageWidth * imageHeight * MIN_AREA_FRACTION;
+    }
+
+    private Point[] outline() {
+        return new Point[]{this.top, this.topLeft, this.bottomLeft, this.bottom, this.bottomRight, this.topRight};
+    }
+
+    private static boolean isInside(Point point, double width, double height) {
+        // Also false for NaN
+        return point != null && point.x >= 0 && point.x <= width && point.y >= 0 && point.y <= height;
+    }
+
+    /**
+     * @return Cross product of a -> b and b -> c
+     */
+    private static double cross(Point a, Point b, Point c) {
+        return (b.x - a.x) * (c.y - b.y) - (b.y - a.y) * (c.x - b.x);
+    }
+
     public double highestX() {
         return Math.max(this.topRight.x, this.bottomRight.x);
     }
@@ -40,4 +146,16 @@ public record CubeSegmentation(
                 MathUtil.subtract(this.center, subtract)
         );
     }
+
+    public CubeSegmentation scale(double factor) {
+        return new CubeSegmentation(
+                MathUtil.scale(this.top, factor),
+                MathUtil.scale(this.topLeft, factor),
+                MathUtil.scale(this.bottomLeft, factor),
+                MathUtil.scale(this.bottom, factor),
+                MathUtil.scale(this.bottomRight, factor),
+                MathUtil.scale(this.topRight, factor),
+                MathUtil.scale(this.center, factor)
+        );
+    }
 }
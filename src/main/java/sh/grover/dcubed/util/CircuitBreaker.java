@@ -0,0 +1,151 @@
+package sh.grover.dcubed.util;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a dependency that keeps failing, so requests fail fast
+ * instead of piling up behind it. Tracks the outcome of the last
+ * {@code window} calls and opens once the failure rate reaches the
+ * threshold. After staying open for a while, it lets a single probe call
+ * through (half-open): success closes it again, failure reopens it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    private final boolean[] outcomes;
+    private final int minCalls;
+    private final double failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int calls;
+    private int failures;
+    private int next;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * @param window Number of recent calls the failure rate is taken over
+     * @param minCalls Calls needed before the breaker can open
+     * @param failureThreshold Failure rate, between 0 and 1, that opens the
+     *                         breaker
+     * @param openDuration How long to reject calls before probing
+     */
+    public CircuitBreaker(int window, int minCalls, double failureThreshold, Duration openDuration) {
+        this(window, minCalls, failureThreshold, openDuration, System::nanoTime);
+    }
+
+    CircuitBreaker(int window, int minCalls, double failureThreshold, Duration openDuration, LongSupplier nanoTime) {
+        if (minCalls < 1 || minCalls > window) {
+            throw new IllegalArgumentException("min calls must be between 1 and the window size: " + minCalls);
+        }
+
+        this.outcomes = new boolean[window];
+        this.minCalls = minCalls;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Must be followed by {@link #recordSuccess()} or
+     * {@link #recordFailure()} if it returns {@code true}
+     * @return Whether the call may go ahead
+     */
+    public synchronized boolean tryAcquire() {
+        switch (this.state) {
+            case CLOSED -> {
+                return true;
+            }
+
+            case OPEN -> {
+                if (this.nanoTime.getAsLong() - this.openedAt < this.openNanos) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.probing = true;
+                return true;
+            }
+
+            default -> {
+                if (this.probing) {
+                    return false;
+                }
+                this.probing = true;
+                return true;
+            }
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (this.state == State.HALF_OPEN) {
+            this.reset();
+            return;
+        }
+        this.record(false);
+    }
+
+    public synchronized void recordFailure() {
+        if (this.state == State.HALF_OPEN) {
+            this.open();
+            return;
+        }
+
+        this.record(true);
+        if (this.state == State.CLOSED && this.calls >= this.minCalls && this.failures >= this.failureThreshold * this.calls) {
+            this.open();
+        }
+    }
+
+    /**
+     * Records that an acquired call ended without an outcome, e.g. because
+     * it was interrupted, so it doesn't count either way
+     */
+    public synchronized void recordCancelled() {
+        if (this.state == State.HALF_OPEN) {
+            this.probing = false;
+        }
+    }
+
+    public synchronized State state() {
+        return this.state;
+    }
+
+    private void record(boolean failure) {
+        if (this.calls == this.outcomes.length) {
+            if (this.outcomes[this.next]) {
+                this.failures--;
+            }
+        } else {
+            this.calls++;
+        }
+
+        this.outcomes[this.next] = failure;
+        if (failure) {
+            this.failures++;
+        }
+        this.next = (this.next + 1) % this.outcomes.length;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openedAt = this.nanoTime.getAsLong();
+        this.probing = false;
+    }
+
+    private void reset() {
+        this.state = State.CLOSED;
+        this.calls = 0;
+        this.failures = 0;
+        this.next = 0;
+        this.probing = false;
+    }
+}
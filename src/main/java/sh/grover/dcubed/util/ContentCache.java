@@ -0,0 +1,120 @@
+package sh.grover.dcubed.util;
+
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Metrics;
+
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Remembers results computed from uploads by their content, so an upload
+ * that's retried or submitted again isn't processed again. Holds results up
+ * to a bounded number of bytes and evicts the least recently used.
+ * <br>
+ * Uploads are looked up by {@link EncodedImage#contentHash()} and length,
+ * and a hit is only returned if {@link EncodedImage#contentDigest()} matches
+ * too, so a hash collision can't return another upload's result.
+ */
+public class ContentCache<V> {
+
+    /**
+     * Estimated heap taken by an entry apart from its value: the map node,
+     * the key, and the digest
+     */
+    static final long ENTRY_BYTES = 160;
+
+    private final long capacityBytes;
+    private final ToLongFunction<? super V> weigher;
+    private final Counter lookups;
+    // Access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<Key, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param name Prefix of the cache's metrics, e.g. {@code scan} exports
+     *             {@code dcubed_scan_cache_lookups_total},
+     *             {@code dcubed_scan_cache_entries} and
+     *             {@code dcubed_scan_cache_bytes}
+     * @param capacityBytes Most bytes of results to keep, including
+     *                      {@link #ENTRY_BYTES} per result
+     * @param weigher Estimates the bytes a result takes on the heap
+     */
+    public ContentCache(String name, long capacityBytes, ToLongFunction<? super V> weigher) {
+        this.capacityBytes = capacityBytes;
+        this.weigher = weigher;
+        this.lookups = Metrics.counter("dcubed_" + name + "_cache_lookups_total", "Lookups in the " + name + " cache, by whether a result was found", "result");
+        var entries = this.entries;
+        Metrics.gauge("dcubed_" + name + "_cache_entries", "Results held by the " + name + " cache", () -> {
+            synchronized (entries) {
+                return entries.size();
+            }
+        });
+        Metrics.gauge("dcubed_" + name + "_cache_bytes", "Estimated bytes held by the " + name + " cache", this.bytes::get);
+    }
+
+    /**
+     * @return The result stored for identical content, or {@code null}
+     */
+    public V get(EncodedImage image) {
+        Entry<V> entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(Key.of(image));
+        }
+        if (entry == null) {
+            this.lookups.increment("miss");
+            return null;
+        }
+        if (!MessageDigest.isEqual(entry.digest(), image.contentDigest())) {
+            this.lookups.increment("collision");
+            return null;
+        }
+        this.lookups.increment("hit");
+        return entry.value();
+    }
+
+    /**
+     * Stores the result, evicting the least recently used ones until the
+     * cache is back within its capacity. A result larger than the whole
+     * capacity isn't stored.
+     */
+    public void put(EncodedImage image, V value) {
+        var entry = new Entry<>(image.contentDigest(), value, ENTRY_BYTES + this.weigher.applyAsLong(value));
+        if (entry.bytes() > this.capacityBytes) {
+            return;
+        }
+
+        synchronized (this.entries) {
+            var replaced = this.entries.put(Key.of(image), entry);
+            var bytes = this.bytes.addAndGet(entry.bytes() - (replaced == null ? 0 : replaced.bytes()));
+
+            var eldest = this.entries.values().iterator();
+            while (bytes > this.capacityBytes) {
+                bytes = this.bytes.addAndGet(-eldest.next().bytes());
+                eldest.remove();
+            }
+        }
+    }
+
+    public long size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long bytes() {
+        return this.bytes.get();
+    }
+
+    private record Entry<V>(byte[] digest, V value, long bytes) {
+    }
+
+    private record Key(long hash, int length) {
+
+        private static Key of(EncodedImage image) {
+            return new Key(image.contentHash(), image.length());
+        }
+    }
+}
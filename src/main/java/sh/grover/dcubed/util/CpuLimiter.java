@@ -0,0 +1,22 @@
+package sh.grover.dcubed.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how much CPU-bound image processing runs at once. Requests are
+ * handled on virtual threads, so without this, a burst of scans would all
+ * decode and warp at the same time and thrash the cores. Work must release
+ * its permit before blocking on I/O.
+ */
+public class CpuLimiter {
+
+    private static final Semaphore PERMITS = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    public static void acquire() {
+        PERMITS.acquireUninterruptibly();
+    }
+
+    public static void release() {
+        PERMITS.release();
+    }
+}
@@ -0,0 +1,80 @@
+package sh.grover.dcubed.util;
+
+import sh.grover.dcubed.util.metrics.RequestTimings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Platform threads for splitting one scan's CPU-bound work across cores,
+ * e.g. processing the three visible faces at once. The pool has one thread
+ * per core, so it bounds the extra work on its own and tasks don't take
+ * {@link CpuLimiter} permits. Tasks must not block on I/O.
+ */
+public class CpuPool {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        var thread = new Thread(runnable, "cpu-pool-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs every task, the last one on the calling thread and the rest on the
+     * pool, and waits for all of them even if one fails, so nothing they use
+     * is released while they still run. Stages they record are added to the
+     * current request's {@link RequestTimings}.
+     * @return The results in the order of {@code tasks}
+     * @throws RuntimeException The first exception thrown by a task
+     */
+    public static <T> List<T> invokeAll(List<Supplier<T>> tasks) {
+        var forked = new ArrayList<Future<T>>(tasks.size() - 1);
+        for (var task : tasks.subList(0, tasks.size() - 1)) {
+            forked.add(EXECUTOR.submit(RequestTimings.propagate(task::get)));
+        }
+
+        RuntimeException failure = null;
+        T last = null;
+        try {
+            last = tasks.getLast().get();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        var results = new ArrayList<T>(tasks.size());
+        var interrupted = false;
+        for (var future : forked) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // Can't return while a task may still be using the inputs
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+                    }
+                    results.add(null);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        results.add(last);
+        return results;
+    }
+}
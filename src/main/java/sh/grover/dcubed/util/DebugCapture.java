@@ -0,0 +1,245 @@
+package sh.grover.dcubed.util;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps annotated images of a sample of scans for diagnosing them later. A
+ * scan is picked in {@link #begin(String)} and bound to the handling thread
+ * until {@link #end()}, like {@link sh.grover.dcubed.util.metrics.RequestTimings}.
+ * Images written while it's bound are copied and encoded on a background
+ * thread, then kept in memory for the most recent captured scans, so
+ * capturing adds no encoding or disk writes to the scan itself. A label
+ * written more than once for a scan, e.g. once per photo, is numbered from
+ * its second image on.
+ */
+public class DebugCapture {
+
+    private static final Counter IMAGES = Metrics.counter("dcubed_debug_images_total", "Debug images captured, or dropped because encoding fell behind", "outcome");
+    private static final DateTimeFormatter FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss").withZone(ZoneOffset.UTC);
+    private static final int MAX_PENDING_IMAGES = 64;
+
+    private static final ThreadLocal<Scan> CURRENT = new ThreadLocal<>();
+
+    private final double sampleRate;
+    private final int capacity;
+    private final ArrayDeque<Scan> scans;
+    private final ExecutorService encoder = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_IMAGES),
+            runnable -> {
+                var thread = new Thread(runnable, "debug-capture-encoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    /**
+     * @param samplePercent Percentage of scans to capture, from 0 to 100
+     * @param capacity Most scans to keep. The oldest is dropped to make room.
+     */
+    public DebugCapture(double samplePercent, int capacity) {
+        if (samplePercent < 0 || samplePercent > 100) {
+            throw new IllegalArgumentException("sample percentage out of range: " + samplePercent);
+        }
+
+        this.sampleRate = samplePercent / 100;
+        this.capacity = capacity;
+        this.scans = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Decides whether to capture the current request and binds it to this
+     * thread if so
+     * @return Whether the request is captured
+     */
+    public boolean begin(String requestId) {
+        if (this.sampleRate == 0 || ThreadLocalRandom.current().nextDouble() >= this.sampleRate) {
+            CURRENT.remove();
+            return false;
+        }
+
+        var scan = new Scan(this, requestId, Instant.now());
+        synchronized (this.scans) {
+            if (this.scans.size() == this.capacity) {
+                this.scans.removeFirst();
+            }
+            this.scans.addLast(scan);
+        }
+        CURRENT.set(scan);
+        return true;
+    }
+
+    /**
+     * @return The task, bound to the current request while it runs if the
+     * request is captured, so images it writes on another thread are kept
+     * as well
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        var scan = CURRENT.get();
+        if (scan == null) {
+            return task;
+        }
+
+        return () -> {
+            var previous = CURRENT.get();
+            CURRENT.set(scan);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Unbinds the current request from this thread
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return Whether the current request is captured, so annotations are
+     * worth drawing
+     */
+    public static boolean isCapturing() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Captures an image for the current request, if it's captured. The image
+     * is copied, so it can be changed or released right after.
+     */
+    public static void write(Mat image, String label) {
+        var scan = CURRENT.get();
+        if (scan != null) {
+            scan.capture.enqueue(scan, image.clone(), label);
+        }
+    }
+
+    /**
+     * @return Ids of the captured requests, oldest first
+     */
+    public List<String> requestIds() {
+        synchronized (this.scans) {
+            return this.scans.stream().map(scan -> scan.requestId).toList();
+        }
+    }
+
+    /**
+     * @return The encoded JPEGs captured for a request by label, in the order
+     * they were written, or {@code null} if the request isn't captured
+     */
+    public Map<String, byte[]> images(String requestId) {
+        var scan = this.find(requestId);
+        if (scan == null) {
+            return null;
+        }
+
+        synchronized (scan.images) {
+            return new LinkedHashMap<>(scan.images);
+        }
+    }
+
+    /**
+     * Writes every captured image into {@code directory}
+     * @return Number of images written
+     */
+    public int flush(Path directory) throws IOException {
+        List<Scan> snapshot;
+        synchronized (this.scans) {
+            snapshot = new ArrayList<>(this.scans);
+        }
+
+        Files.createDirectories(directory);
+        var written = 0;
+        for (var scan : snapshot) {
+            var prefix = FILE_DATE_FORMAT.format(scan.capturedAt) + "-" + scan.requestId + "-";
+            Map<String, byte[]> images;
+            synchronized (scan.images) {
+                images = new LinkedHashMap<>(scan.images);
+            }
+
+            for (var image : images.entrySet()) {
+                Files.write(directory.resolve(prefix + image.getKey() + ".jpg"), image.getValue());
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private Scan find(String requestId) {
+        synchronized (this.scans) {
+            for (var scan : this.scans) {
+                if (scan.requestId.equals(requestId)) {
+                    return scan;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void enqueue(Scan scan, Mat image, String label) {
+        try {
+            this.encoder.execute(() -> {
+                var encoded = new MatOfByte();
+                try {
+                    if (Imgcodecs.imencode(".jpg", image, encoded)) {
+                        synchronized (scan.images) {
+                            var unique = label;
+                            for (var count = 2; scan.images.containsKey(unique); count++) {
+                                unique = label + "-" + count;
+                            }
+                            scan.images.put(unique, encoded.toArray());
+                        }
+                        IMAGES.increment("captured");
+                    }
+                } finally {
+                    encoded.release();
+                    image.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Better to lose a debug image than to slow down scans
+            image.release();
+            IMAGES.increment("dropped");
+        }
+    }
+
+    private static class Scan {
+
+        private final DebugCapture capture;
+        private final String requestId;
+        private final Instant capturedAt;
+        private final Map<String, byte[]> images = new LinkedHashMap<>();
+
+        private Scan(DebugCapture capture, String requestId, Instant capturedAt) {
+            this.capture = capture;
+            this.requestId = requestId;
+            this.capturedAt = capturedAt;
+        }
+    }
+}
@@ -4,18 +4,13 @@ import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 
 public class DrawUtil {
 
-    private static final SimpleDateFormat DEBUG_IMAGE_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
-
     public static final Scalar RED = new Scalar(0, 0, 255);
     public static final Scalar YELLOW = new Scalar(0, 255, 255);
     public static final Scalar GREEN = new Scalar(0, 255, 0);
@@ -38,6 +33,7 @@ public class DrawUtil {
                 segmentation.topRight()
         );
         Imgproc.polylines(image, List.of(points), true, GREEN);
+        points.release();
 
         point(image, segmentation.top(), MAGENTA);
         point(image, segmentation.topLeft(), RED);
@@ -47,11 +43,4 @@ public class DrawUtil {
         point(image, segmentation.topRight(), BLUE);
         point(image, segmentation.center(), WHITE);
     }
-
-    public static void debugWrite(Mat image, String label) {
-        var imageName = DEBUG_IMAGE_DATE_FORMAT.format(new Date()) + "-" + label + ".jpg";
-        if (!Imgcodecs.imwrite(imageName, image)) {
-            throw new RuntimeException("failed to save image");
-        }
-    }
 }
@@ -0,0 +1,73 @@
+package sh.grover.dcubed.util;
+
+import org.opencv.core.Point;
+
+/**
+ * Perspective mapping from a {@code width} by {@code height} rectangle onto
+ * a quadrilateral, computed in closed form (Heckbert's square-to-quad) so
+ * mapping a point doesn't need OpenCV.
+ */
+public class Homography {
+
+    private final double a, b, c, d, e, f, g, h;
+    private final double width;
+    private final double height;
+
+    private Homography(double a, double b, double c, double d, double e, double f, double g, double h, double width, double height) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.e = e;
+        this.f = f;
+        this.g = g;
+        this.h = h;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Maps the rectangle's corners (0, 0), (width - 1, 0),
+     * (width - 1, height - 1) and (0, height - 1) to the given points, the
+     * same correspondence a warp to a {@code width} by {@code height} image
+     * uses.
+     */
+    public static Homography fromRectangle(int width, int height, Point tl, Point tr, Point br, Point bl) {
+        var sx = tl.x - tr.x + br.x - bl.x;
+        var sy = tl.y - tr.y + br.y - bl.y;
+
+        double g, h;
+        if (sx == 0 && sy == 0) {
+            // Parallelogram, so the mapping is affine
+            g = 0;
+            h = 0;
+        } else {
+            var dx1 = tr.x - br.x;
+            var dx2 = bl.x - br.x;
+            var dy1 = tr.y - br.y;
+            var dy2 = bl.y - br.y;
+            var denominator = dx1 * dy2 - dx2 * dy1;
+            g = (sx * dy2 - dx2 * sy) / denominator;
+            h = (dx1 * sy - sx * dy1) / denominator;
+        }
+
+        return new Homography(
+                tr.x - tl.x + g * tr.x, bl.x - tl.x + h * bl.x, tl.x,
+                tr.y - tl.y + g * tr.y, bl.y - tl.y + h * bl.y, tl.y,
+                g, h,
+                Math.max(1, width - 1), Math.max(1, height - 1)
+        );
+    }
+
+    public double mapX(double x, double y) {
+        var u = x / this.width;
+        var v = y / this.height;
+        return (this.a * u + this.b * v + this.c) / (this.g * u + this.h * v + 1);
+    }
+
+    public double mapY(double x, double y) {
+        var u = x / this.width;
+        var v = y / this.height;
+        return (this.d * u + this.e * v + this.f) / (this.g * u + this.h * v + 1);
+    }
+}
@@ -0,0 +1,95 @@
+package sh.grover.dcubed.util;
+
+/**
+ * Reads the dimensions of an encoded image from its header without decoding
+ * it. Supports JPEG and PNG, which covers everything phone cameras upload.
+ */
+public class ImageHeaders {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * @param data Buffer holding the encoded image
+     * @param length Number of bytes of {@code data} that are part of the image
+     * @return The image's dimensions, or {@code null} if the format isn't
+     * recognized or the header is malformed
+     */
+    public static Dimensions dimensions(byte[] data, int length) {
+        if (length >= 24 && startsWith(data, PNG_SIGNATURE)) {
+            // IHDR is always the first chunk
+            return new Dimensions(readInt(data, 16), readInt(data, 20));
+        }
+
+        if (length >= 4 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8) {
+            return jpegDimensions(data, length);
+        }
+
+        return null;
+    }
+
+    private static Dimensions jpegDimensions(byte[] data, int length) {
+        var offset = 2;
+        while (offset + 4 <= length) {
+            if ((data[offset] & 0xFF) != 0xFF) {
+                return null;
+            }
+
+            var marker = data[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte
+                offset++;
+                continue;
+            }
+
+            // Markers that have no segment after them
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                offset += 2;
+                continue;
+            }
+
+            var segmentLength = readShort(data, offset + 2);
+            if (isStartOfFrame(marker)) {
+                if (offset + 9 > length) {
+                    return null;
+                }
+                return new Dimensions(readShort(data, offset + 7), readShort(data, offset + 5));
+            }
+
+            if (marker == 0xD9 || marker == 0xDA) {
+                // Reached the image data without finding a frame header
+                return null;
+            }
+            offset += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // C4 (DHT), C8 (JPG) and CC (DAC) share the range but aren't frames
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (var index = 0; index < prefix.length; index++) {
+            if (data[index] != prefix[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (readShort(data, offset) << 16) | readShort(data, offset + 2);
+    }
+
+    public record Dimensions(int width, int height) {
+
+        public int longEdge() {
+            return Math.max(this.width, this.height);
+        }
+    }
+}
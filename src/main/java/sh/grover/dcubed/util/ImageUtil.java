@@ -0,0 +1,107 @@
+package sh.grover.dcubed.util;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.util.metrics.Stage;
+
+import java.io.IOException;
+
+public class ImageUtil {
+
+    /**
+     * Length of the longer edge that images are decoded close to. Enough to
+     * clearly make out every sticker.
+     */
+    private static final int TARGET_LONG_EDGE = 1024;
+
+    /**
+     * Decodes an image, shrinking it towards {@link #TARGET_LONG_EDGE} in
+     * the process if it's large.
+     * @throws IOException If the image can't be decoded
+     */
+    public static Mat decode(EncodedImage image) throws IOException {
+        return decode(image, TARGET_LONG_EDGE);
+    }
+
+    /**
+     * Decodes an image, shrinking it towards {@code targetLongEdge} in the
+     * process if it's large.
+     * @throws IOException If the image can't be decoded
+     */
+    public static Mat decode(EncodedImage image, int targetLongEdge) throws IOException {
+        var dimensions = ImageHeaders.dimensions(image.bytes(), image.length());
+        return imdecode(image, decodeFlags(dimensions, targetLongEdge), Stage.DECODE);
+    }
+
+    /**
+     * Decodes a grayscale copy of an image, shrunk towards
+     * {@code targetLongEdge} while decoding. Cheap enough to look at an image
+     * before doing any real work on it.
+     * @param stage Stage the decoding time is recorded as
+     * @throws IOException If the image can't be decoded
+     */
+    public static Mat decodeGrayscale(EncodedImage image, int targetLongEdge, Stage stage) throws IOException {
+        var dimensions = ImageHeaders.dimensions(image.bytes(), image.length());
+        // Each color mode is its grayscale mode with IMREAD_COLOR set
+        return imdecode(image, decodeFlags(dimensions, targetLongEdge) & ~Imgcodecs.IMREAD_COLOR, stage);
+    }
+
+    private static Mat imdecode(EncodedImage image, int flags, Stage stage) throws IOException {
+        Mat result;
+        CpuLimiter.acquire();
+        try {
+            var decodeStart = System.nanoTime();
+            var encoded = image.toMat();
+            // The segmenter doesn't rotate images either, so points line up
+            result = Imgcodecs.imdecode(encoded, flags | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+            encoded.release();
+            stage.recordSince(decodeStart);
+        } finally {
+            CpuLimiter.release();
+        }
+
+        if (result.empty()) {
+            throw new IOException("failed to scan image");
+        }
+        return result;
+    }
+
+    /**
+     * @return How much smaller {@code decoded} is than the image it was
+     * decoded from, or 1 if the original size is unknown
+     */
+    public static double decodeScale(EncodedImage image, Mat decoded) {
+        var dimensions = ImageHeaders.dimensions(image.bytes(), image.length());
+        if (dimensions == null || dimensions.width() == 0) {
+            return 1;
+        }
+        return (double) decoded.width() / dimensions.width();
+    }
+
+    /**
+     * Picks how much to shrink an image while decoding it. JPEGs decoded at
+     * a reduced size skip most of the decoding work, and every later step
+     * has fewer pixels to process. Reduces as far as possible while keeping
+     * the long edge at least 3/4 of {@code targetLongEdge}.
+     * @param dimensions Size of the encoded image, or {@code null} if unknown
+     */
+    private static int decodeFlags(ImageHeaders.Dimensions dimensions, int targetLongEdge) {
+        if (dimensions == null) {
+            return Imgcodecs.IMREAD_COLOR;
+        }
+
+        var minLongEdge = targetLongEdge * 3 / 4;
+        var longEdge = dimensions.longEdge();
+        if (longEdge / 8 >= minLongEdge) {
+            return Imgcodecs.IMREAD_REDUCED_COLOR_8;
+        }
+        if (longEdge / 4 >= minLongEdge) {
+            return Imgcodecs.IMREAD_REDUCED_COLOR_4;
+        }
+        if (longEdge / 2 >= minLongEdge) {
+            return Imgcodecs.IMREAD_REDUCED_COLOR_2;
+        }
+        return Imgcodecs.IMREAD_COLOR;
+    }
+}
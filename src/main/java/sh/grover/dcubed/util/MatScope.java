@@ -0,0 +1,78 @@
+package sh.grover.dcubed.util;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Releases every {@link Mat} created during a piece of work when it's
+ * closed. A {@link Mat}'s pixels live in native memory that the GC can't
+ * see, so without releasing them, memory only comes back when the GC happens
+ * to collect the small Java wrappers, which can take long enough to get the
+ * process killed.
+ * <br>
+ * Buffers that are overwritten every scan can be taken with
+ * {@link #scratch()} instead, which recycles them across scopes rather than
+ * allocating new native memory each time.
+ */
+public class MatScope implements AutoCloseable {
+
+    /**
+     * Scratch buffers to keep around between scopes. Enough for the three
+     * faces of every scan that can hold a {@link CpuLimiter} permit.
+     */
+    private static final int MAX_IDLE_SCRATCH = Runtime.getRuntime().availableProcessors() * 3;
+    private static final BlockingQueue<Mat> IDLE_SCRATCH = new ArrayBlockingQueue<>(MAX_IDLE_SCRATCH);
+
+    private final List<Mat> owned = new ArrayList<>();
+    private final List<Mat> scratch = new ArrayList<>();
+
+    /**
+     * Releases {@code mat} when this scope is closed
+     * @return {@code mat}
+     */
+    public synchronized <T extends Mat> T track(T mat) {
+        this.owned.add(mat);
+        return mat;
+    }
+
+    /**
+     * @return An empty {@link Mat} that's released when this scope is closed
+     */
+    public Mat mat() {
+        return this.track(new Mat());
+    }
+
+    /**
+     * @return A {@link Mat} to be used as a destination, with whatever
+     * contents it had in the last scope that used it. OpenCV only
+     * reallocates it if the size or type written to it differs. Must not be
+     * used once this scope is closed.
+     */
+    public synchronized Mat scratch() {
+        var mat = IDLE_SCRATCH.poll();
+        if (mat == null) {
+            mat = new Mat();
+        }
+        this.scratch.add(mat);
+        return mat;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (var mat : this.owned) {
+            mat.release();
+        }
+        this.owned.clear();
+
+        for (var mat : this.scratch) {
+            if (!IDLE_SCRATCH.offer(mat)) {
+                mat.release();
+            }
+        }
+        this.scratch.clear();
+    }
+}
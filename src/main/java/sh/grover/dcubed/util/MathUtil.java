@@ -23,4 +23,8 @@ public class MathUtil {
     public static Point subtract(Point a, Point b) {
         return new Point(a.x - b.x, a.y - b.y);
     }
+
+    public static Point scale(Point point, double factor) {
+        return new Point(point.x * factor, point.y * factor);
+    }
 }
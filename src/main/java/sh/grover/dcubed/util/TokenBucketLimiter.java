@@ -0,0 +1,115 @@
+package sh.grover.dcubed.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token buckets, one per stripe. Keys are hashed onto a fixed
+ * number of stripes, so memory doesn't grow with the number of clients at
+ * the cost of rare collisions sharing a budget. Each stripe is a single
+ * {@code long} updated with compare-and-set:
+ * <br>
+ * {@code [last update in millis: 40][used millitokens: 24]}
+ * <br>
+ * Storing used tokens rather than remaining ones means an untouched
+ * (zeroed) stripe is a full bucket.
+ */
+public class TokenBucketLimiter {
+
+    private static final int STRIPES = 4096;
+    private static final int USED_BITS = 24;
+    private static final long USED_MASK = (1L << USED_BITS) - 1;
+    private static final long MILLITOKENS_PER_TOKEN = 1000;
+
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES);
+    private final long capacity;
+    private final double refillPerMilli;
+    private final LongSupplier nanoTime;
+    private final long epoch;
+
+    /**
+     * @param burst Number of requests a key can make at once
+     * @param perSecond Number of requests a key regains every second
+     */
+    public TokenBucketLimiter(int burst, double perSecond) {
+        this(burst, perSecond, System::nanoTime);
+    }
+
+    TokenBucketLimiter(int burst, double perSecond, LongSupplier nanoTime) {
+        this.capacity = burst * MILLITOKENS_PER_TOKEN;
+        if (this.capacity > USED_MASK) {
+            throw new IllegalArgumentException("burst too large: " + burst);
+        }
+
+        this.refillPerMilli = perSecond * MILLITOKENS_PER_TOKEN / 1000;
+        this.nanoTime = nanoTime;
+        this.epoch = nanoTime.getAsLong();
+    }
+
+    /**
+     * Takes one token from the key's bucket
+     * @return Whether the bucket had a token to take
+     */
+    public boolean tryAcquire(String key) {
+        return this.tryAcquire(key, 1);
+    }
+
+    /**
+     * Takes several tokens from the key's bucket, or none if it doesn't have
+     * them all
+     * @return Whether the bucket had the tokens to take
+     */
+    public boolean tryAcquire(String key, int tokens) {
+        var cost = tokens * MILLITOKENS_PER_TOKEN;
+        var stripe = stripeOf(key);
+        var now = (this.nanoTime.getAsLong() - this.epoch) / 1_000_000;
+
+        while (true) {
+            var packed = this.stripes.get(stripe);
+            var lastUpdate = packed >>> USED_BITS;
+            var refilled = (long) (Math.max(0, now - lastUpdate) * this.refillPerMilli);
+            var used = Math.max(0, (packed & USED_MASK) - refilled);
+            // Only move the clock forward once something was refilled, so
+            // frequent requests don't keep truncating partial refills away
+            var updateTime = refilled > 0 ? now : lastUpdate;
+
+            if (used + cost > this.capacity) {
+                return false;
+            }
+
+            var updated = (updateTime << USED_BITS) | (used + cost);
+            if (this.stripes.compareAndSet(stripe, packed, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts tokens back into the key's bucket, e.g. for a request that was
+     * turned away after being charged. The bucket never holds more than its
+     * burst.
+     */
+    public void refund(String key, int tokens) {
+        var refund = tokens * MILLITOKENS_PER_TOKEN;
+        var stripe = stripeOf(key);
+        while (true) {
+            var packed = this.stripes.get(stripe);
+            var used = Math.max(0, (packed & USED_MASK) - refund);
+            if (this.stripes.compareAndSet(stripe, packed, (packed & ~USED_MASK) | used)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Seconds until a drained bucket has a token again, rounded up
+     */
+    public long retryAfterSeconds() {
+        return (long) Math.ceil(MILLITOKENS_PER_TOKEN / this.refillPerMilli / 1000);
+    }
+
+    private static int stripeOf(String key) {
+        var hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+}
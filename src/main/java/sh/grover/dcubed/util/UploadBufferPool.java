@@ -0,0 +1,125 @@
+package sh.grover.dcubed.util;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import sh.grover.dcubed.model.vision.EncodedImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Recycles the buffers uploads are read into. Each buffer pairs a heap array
+ * with a native {@link Mat} of the same capacity, so an upload is read
+ * straight into the array and copied once into native memory for decoding,
+ * instead of growing an array with {@link InputStream#readAllBytes()} and
+ * allocating a new {@link Mat} for every request.
+ */
+public class UploadBufferPool {
+
+    private final int capacity;
+    private final BlockingQueue<Buffer> idle;
+
+    /**
+     * @param capacity Largest upload, in bytes, a buffer can hold
+     * @param maxIdle Most buffers to keep around between requests
+     */
+    public UploadBufferPool(int capacity, int maxIdle) {
+        this.capacity = capacity;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Takes an idle buffer, or allocates one if none are idle. Must be closed
+     * to return it to the pool.
+     */
+    public Buffer acquire() {
+        var buffer = this.idle.poll();
+        return buffer == null ? new Buffer() : buffer;
+    }
+
+    public class Buffer implements EncodedImage, AutoCloseable {
+
+        private final byte[] bytes = new byte[capacity];
+        private final Mat nativeBytes = new Mat(1, capacity, CvType.CV_8UC1);
+        private int length;
+        private long contentHash;
+        /**
+         * Written after {@link #contentHash}, so reading it first makes the
+         * hash visible to other threads
+         */
+        private volatile boolean hashed;
+        private volatile byte[] contentDigest;
+
+        private Buffer() {
+        }
+
+        /**
+         * Replaces the contents of this buffer with the rest of the stream
+         * @throws IOException If the stream fails, is empty or holds more
+         *                     than the pool's capacity
+         */
+        public void readFrom(InputStream stream) throws IOException {
+            this.hashed = false;
+            this.contentDigest = null;
+            this.length = stream.readNBytes(this.bytes, 0, this.bytes.length);
+            if (this.length == 0) {
+                throw new IOException("upload is empty");
+            }
+            if (this.length == this.bytes.length && stream.read() != -1) {
+                throw new IOException("upload larger than " + this.bytes.length + " bytes");
+            }
+        }
+
+        @Override
+        public byte[] bytes() {
+            return this.bytes;
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        /**
+         * Hashes the contents once per upload, however many caches look
+         * them up
+         */
+        @Override
+        public long contentHash() {
+            if (!this.hashed) {
+                this.contentHash = XxHash64.hash(this.bytes, 0, this.length, 0);
+                this.hashed = true;
+            }
+            return this.contentHash;
+        }
+
+        @Override
+        public byte[] contentDigest() {
+            if (this.contentDigest == null) {
+                this.contentDigest = EncodedImage.super.contentDigest();
+            }
+            return this.contentDigest;
+        }
+
+        /**
+         * @return A single-row {@link Mat} header over the contents. Only
+         * valid until this buffer is closed.
+         */
+        @Override
+        public Mat toMat() {
+            var mat = this.nativeBytes.colRange(0, this.length);
+            // Only copies as many bytes as the header covers
+            mat.put(0, 0, this.bytes);
+            return mat;
+        }
+
+        @Override
+        public void close() {
+            if (!idle.offer(this)) {
+                this.nativeBytes.release();
+            }
+        }
+    }
+}
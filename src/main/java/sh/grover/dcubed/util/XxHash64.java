@@ -0,0 +1,87 @@
+package sh.grover.dcubed.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The XXH64 hash. Fast enough to hash every upload, reading 8 bytes at a
+ * time, but not cryptographic, so it mustn't be relied on where someone
+ * could gain from crafting a collision.
+ */
+public class XxHash64 {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        var end = offset + length;
+        var position = offset;
+        long hash;
+
+        if (length >= 32) {
+            var v1 = seed + PRIME_1 + PRIME_2;
+            var v2 = seed + PRIME_2;
+            var v3 = seed;
+            var v4 = seed - PRIME_1;
+            var limit = end - 32;
+            do {
+                v1 = round(v1, (long) LONGS.get(data, position));
+                v2 = round(v2, (long) LONGS.get(data, position + 8));
+                v3 = round(v3, (long) LONGS.get(data, position + 16));
+                v4 = round(v4, (long) LONGS.get(data, position + 24));
+                position += 32;
+            } while (position <= limit);
+
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME_5;
+        }
+
+        hash += length;
+
+        while (position + 8 <= end) {
+            hash ^= round(0, (long) LONGS.get(data, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+            position += 8;
+        }
+        if (position + 4 <= end) {
+            hash ^= ((int) INTS.get(data, position) & 0xFFFFFFFFL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            position += 4;
+        }
+        while (position < end) {
+            hash ^= (data[position] & 0xFF) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+            position++;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME_1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME_1 + PRIME_4;
+    }
+}
@@ -0,0 +1,45 @@
+package sh.grover.dcubed.util.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, optionally split by the value of one
+ * label.
+ */
+public class Counter {
+
+    private final String label;
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    Counter(String label) {
+        this.label = label;
+    }
+
+    public void increment() {
+        this.increment("");
+    }
+
+    public void increment(String labelValue) {
+        this.add(labelValue, 1);
+    }
+
+    public void add(String labelValue, long amount) {
+        this.counts.computeIfAbsent(labelValue, key -> new LongAdder()).add(amount);
+    }
+
+    public long get(String labelValue) {
+        var count = this.counts.get(labelValue);
+        return count == null ? 0 : count.sum();
+    }
+
+    void write(StringBuilder out, String name) {
+        for (var entry : this.counts.entrySet()) {
+            out.append(name);
+            if (this.label != null) {
+                out.append('{').append(this.label).append("=\"").append(entry.getKey()).append("\"}");
+            }
+            out.append(' ').append(entry.getValue().sum()).append('\n');
+        }
+    }
+}
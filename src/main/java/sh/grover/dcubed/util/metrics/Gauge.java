@@ -0,0 +1,32 @@
+package sh.grover.dcubed.util.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Values split by one label, each read on every scrape
+ */
+public class Gauge {
+
+    private final String label;
+    private final ConcurrentHashMap<String, LongSupplier> values = new ConcurrentHashMap<>();
+
+    Gauge(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Reports {@code value} under {@code labelValue}, replacing any previous
+     * supplier for it
+     */
+    public void set(String labelValue, LongSupplier value) {
+        this.values.put(labelValue, value);
+    }
+
+    void write(StringBuilder out, String name) {
+        for (var entry : this.values.entrySet()) {
+            out.append(name).append('{').append(this.label).append("=\"").append(entry.getKey()).append("\"} ");
+            out.append(entry.getValue().getAsLong()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package sh.grover.dcubed.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations into log-linear buckets, HdrHistogram style: every power
+ * of two is split into {@link #SUB_BUCKETS} equal buckets, so any recorded
+ * value is off by at most 1/{@value #SUB_BUCKETS} of itself. Recording is a
+ * single atomic increment into a stripe picked by the current thread, so
+ * threads rarely contend. Stripes are only summed when scraped.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values at or above 2^40ns (about 18 minutes) land in the last bucket */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int SUM_INDEX = BUCKETS;
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+    /**
+     * Bucket boundaries reported to Prometheus, in seconds. Each reported
+     * bucket counts every internal bucket that ends at or below it.
+     */
+    private static final String[] REPORTED_BOUNDS = {
+            "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025",
+            "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "30",
+    };
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    public LatencyHistogram() {
+        for (var iStripe = 0; iStripe < STRIPES; iStripe++) {
+            this.stripes[iStripe] = new AtomicLongArray(BUCKETS + 1);
+        }
+    }
+
+    public void record(long nanos) {
+        var value = Math.max(0, nanos);
+        var stripe = this.stripes[(int) Thread.currentThread().threadId() & (STRIPES - 1)];
+        stripe.incrementAndGet(bucketOf(value));
+        stripe.addAndGet(SUM_INDEX, value);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value previously
+     * returned by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Writes the histogram in Prometheus text format, without the HELP and
+     * TYPE lines.
+     * @param labels Extra labels to put on every sample, e.g.
+     *               {@code stage="decode"}, or an empty string for none
+     */
+    void write(StringBuilder out, String name, String labels) {
+        var counts = new long[BUCKETS];
+        var sumNanos = 0L;
+        for (var stripe : this.stripes) {
+            for (var bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] += stripe.get(bucket);
+            }
+            sumNanos += stripe.get(SUM_INDEX);
+        }
+
+        var labelPrefix = labels.isEmpty() ? "" : labels + ",";
+        var cumulative = 0L;
+        var bucket = 0;
+        for (var bound : REPORTED_BOUNDS) {
+            var boundNanos = (long) (Double.parseDouble(bound) * 1e9);
+            while (bucket < BUCKETS && upperBoundOf(bucket) <= boundNanos) {
+                cumulative += counts[bucket];
+                bucket++;
+            }
+            out.append(name).append("_bucket{").append(labelPrefix).append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+        }
+
+        for (; bucket < BUCKETS; bucket++) {
+            cumulative += counts[bucket];
+        }
+        out.append(name).append("_bucket{").append(labelPrefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum");
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(sumNanos / 1e9).append('\n');
+        out.append(name).append("_count");
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(cumulative).append('\n');
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        var shift = exponent - SUB_BUCKET_BITS;
+        var subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The smallest value that no longer falls into {@code bucket}
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+
+        var shift = bucket / SUB_BUCKETS - 1;
+        var subBucket = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << shift;
+    }
+}
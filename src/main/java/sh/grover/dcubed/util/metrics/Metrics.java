@@ -0,0 +1,79 @@
+package sh.grover.dcubed.util.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics, exported in the Prometheus text format by
+ * {@link #scrape()}.
+ */
+public class Metrics {
+
+    // Must be initialized before any metric below registers itself
+    private static final Map<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    public static final Counter SCAN_FAILURES = counter("dcubed_scan_failures_total", "Scans that did not produce sides", "cause");
+
+    private static final String STAGE_DURATION = "dcubed_stage_duration_seconds";
+
+    public static Counter counter(String name, String help, String label) {
+        var counter = new Counter(label);
+        register(name, help, "counter", out -> counter.write(out, name));
+        return counter;
+    }
+
+    public static Counter counter(String name, String help) {
+        return counter(name, help, null);
+    }
+
+    public static LatencyHistogram histogram(String name, String help) {
+        var histogram = new LatencyHistogram();
+        register(name, help, "histogram", out -> histogram.write(out, name, ""));
+        return histogram;
+    }
+
+    /**
+     * Registers a value that's read on every scrape. Registering the same
+     * name again replaces the previous supplier.
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        register(name, help, "gauge", out -> out.append(name).append(' ').append(value.getAsLong()).append('\n'));
+    }
+
+    public static Gauge gauge(String name, String help, String label) {
+        var gauge = new Gauge(label);
+        register(name, help, "gauge", out -> gauge.write(out, name));
+        return gauge;
+    }
+
+    public static String scrape() {
+        var out = new StringBuilder(8192);
+
+        out.append("# HELP ").append(STAGE_DURATION).append(" Time spent in each stage of a request\n");
+        out.append("# TYPE ").append(STAGE_DURATION).append(" histogram\n");
+        for (var stage : Stage.values()) {
+            stage.histogram().write(out, STAGE_DURATION, "stage=\"" + stage.id() + "\"");
+        }
+
+        for (var entry : FAMILIES.entrySet()) {
+            var family = entry.getValue();
+            out.append("# HELP ").append(entry.getKey()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type()).append('\n');
+            family.writer().write(out);
+        }
+        return out.toString();
+    }
+
+    private static void register(String name, String help, String type, SampleWriter writer) {
+        FAMILIES.put(name, new Family(help, type, writer));
+    }
+
+    private record Family(String help, String type, SampleWriter writer) {
+    }
+
+    @FunctionalInterface
+    private interface SampleWriter {
+        void write(StringBuilder out);
+    }
+}
@@ -0,0 +1,91 @@
+package sh.grover.dcubed.util.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in each {@link Stage} while handling one request, bound to the
+ * handling thread between {@link #begin()} and {@link #end()}. Stages
+ * recorded on that thread are added automatically, and the totals are
+ * reported in a {@code Server-Timing} header.
+ */
+public class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+
+    private RequestTimings() {
+    }
+
+    public static void begin() {
+        CURRENT.set(new RequestTimings());
+    }
+
+    /**
+     * Unbinds the current request's timings from this thread
+     * @return The value for the {@code Server-Timing} header, or an empty
+     * string if no stage was recorded
+     */
+    public static String end() {
+        var timings = CURRENT.get();
+        CURRENT.remove();
+        return timings == null ? "" : timings.toHeader();
+    }
+
+    /**
+     * Wraps a task so stages it records on another thread are still added to
+     * the current request's timings
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        var timings = CURRENT.get();
+        if (timings == null) {
+            return task;
+        }
+
+        return () -> {
+            var previous = CURRENT.get();
+            CURRENT.set(timings);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Replaces the current request's time for a stage, e.g. to report how
+     * long it waited for work done on another thread
+     */
+    public static void set(Stage stage, long nanos) {
+        var timings = CURRENT.get();
+        if (timings != null) {
+            timings.nanos.set(stage.ordinal(), nanos);
+        }
+    }
+
+    static void add(Stage stage, long nanos) {
+        var timings = CURRENT.get();
+        if (timings != null) {
+            timings.nanos.addAndGet(stage.ordinal(), nanos);
+        }
+    }
+
+    private String toHeader() {
+        var header = new StringBuilder(128);
+        for (var stage : Stage.values()) {
+            var stageNanos = this.nanos.get(stage.ordinal());
+            if (stageNanos == 0) {
+                continue;
+            }
+
+            if (!header.isEmpty()) {
+                header.append(", ");
+            }
+            header.append(stage.id()).append(";dur=").append(String.format(Locale.ROOT, "%.3f", stageNanos / 1e6));
+        }
+        return header.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package sh.grover.dcubed.util.metrics;
+
+/**
+ * The steps a request's time is spent on. Each stage has its own latency
+ * histogram, exported as {@code dcubed_stage_duration_seconds}, and is
+ * reported per request by {@link RequestTimings}.
+ */
+public enum Stage {
+    MULTIPART("multipart"),
+    QUALITY("quality"),
+    DECODE("decode"),
+    SEGMENT("segment"),
+    WARP("warp"),
+    EXTRACT("extract"),
+    MERGE("merge"),
+    SOLVE("solve"),
+    SERIALIZE("serialize");
+
+    private final String id;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Stage(String id) {
+        this.id = id;
+    }
+
+    public String id() {
+        return this.id;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value previously
+     * returned by {@link System#nanoTime()}. Also adds it to the current
+     * thread's {@link RequestTimings}, if any.
+     */
+    public void recordSince(long startNanos) {
+        var nanos = System.nanoTime() - startNanos;
+        this.histogram.record(nanos);
+        RequestTimings.add(this, nanos);
+    }
+
+    LatencyHistogram histogram() {
+        return this.histogram;
+    }
+}
@@ -0,0 +1,26 @@
+package sh.grover.dcubed.view;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("sh.grover.dcubed.ScanPhoto")
+@Label("Scan Photo")
+@Category({"dCubed", "Scan"})
+@Description("Handling of one /scan-photo request")
+@StackTrace(false)
+class ScanPhotoEvent extends jdk.jfr.Event {
+
+    @Label("Session")
+    String session;
+
+    @Label("Photo Size")
+    @DataAmount
+    long photoBytes;
+
+    @Label("Status")
+    int status;
+}
@@ -1,91 +1,315 @@
 package sh.grover.dcubed.view;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
 import io.javalin.config.SizeUnit;
 import io.javalin.http.Context;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.imgcodecs.Imgcodecs;
+import io.javalin.http.UploadedFile;
 import sh.grover.dcubed.controller.SolverSessions;
 import sh.grover.dcubed.controller.vision.IColorIdentifier;
 import sh.grover.dcubed.model.ScanResult;
 import sh.grover.dcubed.model.Side;
+import sh.grover.dcubed.model.SolveInstructions;
 import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.PhotoQualityException;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+import sh.grover.dcubed.util.DebugCapture;
+import sh.grover.dcubed.util.TokenBucketLimiter;
+import sh.grover.dcubed.util.UploadBufferPool;
+import sh.grover.dcubed.util.metrics.Counter;
+import sh.grover.dcubed.util.metrics.Metrics;
+import sh.grover.dcubed.util.metrics.RequestTimings;
+import sh.grover.dcubed.util.metrics.Stage;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class WebServer {
 
+    private static final int MAX_SCANS_IN_FLIGHT = 64;
+    private static final int MAX_UPLOAD_BYTES = 1024 * 1024;
+    /**
+     * A cube's six sides fit in two photos of three sides each
+     */
+    private static final int MAX_PHOTOS_PER_SCAN = 2;
+    private static final Path DEBUG_CAPTURE_DIRECTORY = Path.of("debug-captures");
+    /**
+     * Captured photos are users' own, so they're only served to this host
+     */
+    private static final String ADMIN_HOST = "127.0.0.1";
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    /**
+     * Kept apart from scan failures, since shedding load says nothing about
+     * whether scans work
+     */
+    private static final Counter REJECTED_SCANS = Metrics.counter("dcubed_scans_rejected_total", "Scans turned away before being processed, by reason", "reason");
+
     private final SolverSessions solverSessions;
     private final IColorIdentifier colorIdentifier;
+    private final DebugCapture debugCapture;
+
+    private final TokenBucketLimiter scanLimiter = new TokenBucketLimiter(6, 0.5);
+    private final TokenBucketLimiter solveLimiter = new TokenBucketLimiter(10, 1);
+    private final Semaphore scansInFlight = new Semaphore(MAX_SCANS_IN_FLIGHT);
+    private final ExecutorService photoExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final UploadBufferPool uploadBuffers = new UploadBufferPool(MAX_UPLOAD_BYTES, MAX_SCANS_IN_FLIGHT * MAX_PHOTOS_PER_SCAN);
 
-    public WebServer(SolverSessions solverSessions, IColorIdentifier colorIdentifier) {
+    /**
+     * @param virtualThreads Whether to handle each request on its own virtual
+     *                       thread instead of Jetty's platform thread pool.
+     *                       Scans spend most of their time waiting on the
+     *                       segmenter, so this keeps a burst of them from
+     *                       exhausting the pool.
+     * @param adminPort Port for the admin routes, which are only served on
+     *                  the loopback interface
+     */
+    public WebServer(SolverSessions solverSessions, IColorIdentifier colorIdentifier, DebugCapture debugCapture, boolean virtualThreads, int adminPort) {
         this.solverSessions = solverSessions;
         this.colorIdentifier = colorIdentifier;
+        this.debugCapture = debugCapture;
 
-        Javalin.create(config -> config.jetty.multipartConfig.maxTotalRequestSize(1, SizeUnit.MB))
+        Javalin.create(config -> {
+                    config.useVirtualThreads = virtualThreads;
+                    config.jetty.multipartConfig.maxTotalRequestSize((long) MAX_UPLOAD_BYTES * MAX_PHOTOS_PER_SCAN, SizeUnit.BYTES);
+                })
                 .post("/scan-photo", this::scanPhoto)
                 .post("/solve", this::solve)
+                .get("/metrics", this::metrics)
                 .start();
+
+        Javalin.create()
+                .get("/admin/debug-captures", this::debugCaptures)
+                .get("/admin/debug-captures/{request}", this::debugCaptureLabels)
+                .get("/admin/debug-captures/{request}/{label}", this::debugCaptureImage)
+                .post("/admin/debug-captures/flush", this::flushDebugCaptures)
+                .start(ADMIN_HOST, adminPort);
     }
 
     private void scanPhoto(Context ctx) {
-        // TODO: rate limit
         if (true) {
             ctx.header("Access-Control-Allow-Origin", "*");
+            ctx.header("Timing-Allow-Origin", "*");
+        }
+
+        // Checked before the upload is read so rejections stay cheap. Every
+        // scan has at least one photo, further photos are charged once the
+        // parts are counted.
+        if (!this.scanLimiter.tryAcquire(ctx.ip())) {
+            REJECTED_SCANS.increment("rate_limited");
+            tooManyRequests(ctx, this.scanLimiter);
+            return;
+        }
+
+        if (!this.scansInFlight.tryAcquire()) {
+            REJECTED_SCANS.increment("busy");
+            ctx.header("Retry-After", "1");
+            ctx.status(503).json("server busy");
+            return;
+        }
+
+        var event = new ScanPhotoEvent();
+        event.begin();
+
+        // Lets a captured scan be looked up from the client's side
+        var requestId = UUID.randomUUID().toString();
+        ctx.header("Request-Id", requestId);
+
+        RequestTimings.begin();
+        try {
+            this.processScan(ctx, requestId);
+        } finally {
+            this.scansInFlight.release();
+            serverTiming(ctx);
+
+            event.session = ctx.queryParam("session");
+            event.photoBytes = ctx.req().getContentLengthLong();
+            event.status = ctx.statusCode();
+            event.commit();
         }
+    }
 
-        var file = ctx.uploadedFile("photo");
-        if (file == null) {
+    private void processScan(Context ctx, String requestId) {
+        var multipartStart = System.nanoTime();
+        var files = ctx.uploadedFiles("photo");
+        Stage.MULTIPART.recordSince(multipartStart);
+        if (files.isEmpty()) {
+            Metrics.SCAN_FAILURES.increment("missing_photo");
             ctx.status(400).json("file required");
             return;
         }
+        if (files.size() > MAX_PHOTOS_PER_SCAN) {
+            Metrics.SCAN_FAILURES.increment("too_many_photos");
+            ctx.status(400).json("too many photos");
+            return;
+        }
 
-        Mat image;
+        // Clients that find the cube themselves save the segmenter call.
+        // The nth segmentation belongs to the nth photo.
+        var segmentationsJson = ctx.formParams("segmentation");
+        if (segmentationsJson.size() > files.size()) {
+            Metrics.SCAN_FAILURES.increment("invalid_segmentation");
+            ctx.status(400).json("invalid segmentation");
+            return;
+        }
+        var clientSegmentations = new CubeSegmentation[files.size()];
+        for (var index = 0; index < segmentationsJson.size(); index++) {
+            try {
+                clientSegmentations[index] = JSON_MAPPER.readValue(segmentationsJson.get(index), CubeSegmentation.class);
+            } catch (JsonProcessingException e) {
+                Metrics.SCAN_FAILURES.increment("invalid_segmentation");
+                ctx.status(400).json("invalid segmentation");
+                return;
+            }
+        }
+
+        // Each photo is scanned on its own, so the ones after the first are
+        // charged too. A scan turned away here gets its first token back.
+        var extraPhotos = files.size() - 1;
+        if (!this.scanLimiter.tryAcquire(ctx.ip(), extraPhotos)) {
+            this.scanLimiter.refund(ctx.ip(), 1);
+            REJECTED_SCANS.increment("rate_limited");
+            tooManyRequests(ctx, this.scanLimiter);
+            return;
+        }
+
+        if (!this.scansInFlight.tryAcquire(extraPhotos)) {
+            this.scanLimiter.refund(ctx.ip(), files.size());
+            REJECTED_SCANS.increment("busy");
+            ctx.header("Retry-After", "1");
+            ctx.status(503).json("server busy");
+            return;
+        }
+
+        this.debugCapture.begin(requestId);
         try {
-            image = this.imageFromStream(file.content(), Imgcodecs.IMREAD_UNCHANGED);
+            this.scanAndMerge(ctx, files, clientSegmentations);
+        } finally {
+            DebugCapture.end();
+            this.scansInFlight.release(extraPhotos);
+        }
+    }
+
+    private void scanAndMerge(Context ctx, List<UploadedFile> files, CubeSegmentation[] clientSegmentations) {
+        Side[][] photos;
+        try {
+            photos = this.scanPhotos(files, clientSegmentations);
         } catch (IOException e) {
             e.printStackTrace();
+            Metrics.SCAN_FAILURES.increment("decode");
             ctx.status(400).json("failed to read image");
             return;
-        }
-
-        Side[] sides;
-        try {
-            sides = this.colorIdentifier.estimateColors(image);
+        } catch (PhotoQualityException e) {
+            // Expected for some photos, the client tells the user what to fix
+            Metrics.SCAN_FAILURES.increment("photo_quality");
+            ctx.status(422).json(e.problem().code());
+            return;
         } catch (ColorScanException e) {
             e.printStackTrace();
+            Metrics.SCAN_FAILURES.increment("scan");
             ctx.status(422).json("failed to scan");
             return;
         }
 
         ScanResult scanResult;
 
+        var mergeStart = System.nanoTime();
         var sessionStr = ctx.queryParam("session");
         if (sessionStr == null) {
-            scanResult = this.solverSessions.newSession(sides);
+            scanResult = this.solverSessions.newSession(photos);
         } else {
             UUID session;
             try {
                 session = UUID.fromString(sessionStr);
             } catch (IllegalArgumentException e) {
+                Metrics.SCAN_FAILURES.increment("invalid_session");
                 ctx.status(400).json("invalid session");
                 return;
             }
 
-            scanResult = this.solverSessions.addPhoto(session, sides);
+            scanResult = this.solverSessions.addPhoto(session, photos);
         }
+        Stage.MERGE.recordSince(mergeStart);
 
-        ctx.json(scanResult);
+        serialize(ctx, scanResult);
+    }
+
+    /**
+     * Scans every photo at once, the last one on this thread
+     * @throws IOException If a photo can't be read
+     * @throws ColorScanException If the cube can't be found in a photo
+     */
+    private Side[][] scanPhotos(List<UploadedFile> files, CubeSegmentation[] clientSegmentations) throws IOException, ColorScanException {
+        var last = files.size() - 1;
+        var pending = new ArrayList<Future<Side[]>>(last);
+        for (var index = 0; index < last; index++) {
+            var file = files.get(index);
+            var clientSegmentation = clientSegmentations[index];
+            Callable<Side[]> scan = () -> this.scanPhoto(file, clientSegmentation);
+            pending.add(this.photoExecutor.submit(RequestTimings.propagate(DebugCapture.propagate(scan))));
+        }
+
+        var photos = new Side[files.size()][];
+        try {
+            photos[last] = this.scanPhoto(files.get(last), clientSegmentations[last]);
+            for (var index = 0; index < last; index++) {
+                photos[index] = pending.get(index).get();
+            }
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case IOException cause -> throw cause;
+                case ColorScanException cause -> throw cause;
+                case RuntimeException cause -> throw cause;
+                default -> throw new IllegalStateException(e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ColorScanException("interrupted while scanning photos", e);
+        } finally {
+            // Nothing left to wait for if one photo already failed
+            for (var future : pending) {
+                future.cancel(true);
+            }
+        }
+        return photos;
+    }
+
+    private Side[] scanPhoto(UploadedFile file, CubeSegmentation clientSegmentation) throws IOException, ColorScanException {
+        try (var upload = this.uploadBuffers.acquire()) {
+            upload.readFrom(file.content());
+            return this.colorIdentifier.estimateColors(upload, clientSegmentation);
+        }
     }
 
     private void solve(Context ctx) {
         if (true) {
             ctx.header("Access-Control-Allow-Origin", "*");
+            ctx.header("Timing-Allow-Origin", "*");
+        }
+
+        if (!this.solveLimiter.tryAcquire(ctx.ip())) {
+            tooManyRequests(ctx, this.solveLimiter);
+            return;
         }
 
+        RequestTimings.begin();
+        try {
+            this.processSolve(ctx);
+        } finally {
+            serverTiming(ctx);
+        }
+    }
+
+    private void processSolve(Context ctx) {
         var sessionStr = ctx.queryParam("session");
         if (sessionStr == null) {
             ctx.status(400).json("invalid session");
@@ -100,19 +324,72 @@ public class WebServer {
             return;
         }
 
-        var solves = this.solverSessions.solve(session);
-        ctx.json(solves);
+        SolveInstructions solves;
+        var solveStart = System.nanoTime();
+        try {
+            solves = this.solverSessions.solve(session);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).json("invalid session");
+            return;
+        }
+        // The solve usually ran in the background, so report how long this
+        // request waited for it rather than how long it took
+        RequestTimings.set(Stage.SOLVE, System.nanoTime() - solveStart);
+
+        serialize(ctx, solves);
     }
 
-    private Mat imageFromStream(InputStream stream, int flags) throws IOException {
-        var bytes = stream.readAllBytes();
-        var mat = new Mat(1, bytes.length, CvType.CV_8UC1);
-        mat.put(0, 0, bytes);
+    private void metrics(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4").result(Metrics.scrape());
+    }
+
+    private void debugCaptures(Context ctx) {
+        ctx.json(this.debugCapture.requestIds());
+    }
 
-        var result = Imgcodecs.imdecode(mat, flags);
-        if (result.empty()) {
-            throw new IOException("failed to scan image");
+    private void debugCaptureLabels(Context ctx) {
+        var images = this.debugCapture.images(ctx.pathParam("request"));
+        if (images == null) {
+            ctx.status(404).json("request not captured");
+            return;
         }
-        return result;
+        ctx.json(images.keySet());
+    }
+
+    private void debugCaptureImage(Context ctx) {
+        var images = this.debugCapture.images(ctx.pathParam("request"));
+        var image = images == null ? null : images.get(ctx.pathParam("label"));
+        if (image == null) {
+            ctx.status(404).json("image not captured");
+            return;
+        }
+        ctx.contentType("image/jpeg").result(image);
+    }
+
+    private void flushDebugCaptures(Context ctx) {
+        try {
+            ctx.json(this.debugCapture.flush(DEBUG_CAPTURE_DIRECTORY));
+        } catch (IOException e) {
+            e.printStackTrace();
+            ctx.status(500).json("failed to write captures");
+        }
+    }
+
+    private static void serialize(Context ctx, Object result) {
+        var serializeStart = System.nanoTime();
+        ctx.json(result);
+        Stage.SERIALIZE.recordSince(serializeStart);
+    }
+
+    private static void serverTiming(Context ctx) {
+        var timings = RequestTimings.end();
+        if (!timings.isEmpty()) {
+            ctx.header("Server-Timing", timings);
+        }
+    }
+
+    private static void tooManyRequests(Context ctx, TokenBucketLimiter limiter) {
+        ctx.header("Retry-After", Long.toString(limiter.retryAfterSeconds()));
+        ctx.status(429).json("too many requests");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package sh.grover.dcubed;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import sh.grover.dcubed.controller.vision.segment.FakeSegmenter;
+import sh.grover.dcubed.model.vision.EncodedImage;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MainTest {
+
+    private static final EncodedImage IMAGE = new EncodedImage() {
+        @Override
+        public byte[] bytes() {
+            return new byte[]{1, 2, 3};
+        }
+
+        @Override
+        public int length() {
+            return 3;
+        }
+
+        @Override
+        public Mat toMat() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Test
+    void remoteSegmentersAreHedged() throws Exception {
+        try (var fake = new FakeSegmenter()) {
+            var segmenter = Main.segmenter(new String[]{"--segmenters=" + fake.uri()});
+            try {
+                // Enough fast calls to know what a normal latency is
+                for (var call = 0; call < 30; call++) {
+                    assertEquals(50, segmenter.segment(IMAGE).center().x);
+                }
+
+                var requestsBefore = fake.requests();
+                fake.setNextLatencyMillis(5000);
+                var start = System.nanoTime();
+                segmenter.segment(IMAGE);
+
+                assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+                assertEquals(requestsBefore + 2, fake.requests());
+            } finally {
+                ((AutoCloseable) segmenter).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package sh.grover.dcubed.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sh.grover.dcubed.model.FaceColor;
+import sh.grover.dcubed.model.Side;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recoverLatestRevision() throws IOException {
+        var file = this.tempDir.resolve("sessions.journal");
+        var sessionId = UUID.randomUUID();
+
+        try (var journal = new SessionJournal(file)) {
+            assertTrue(journal.recover().isEmpty());
+            journal.start(List::of);
+
+            journal.append(new SessionJournal.Entry(sessionId, 2, sides(FaceColor.RED, FaceColor.BLUE)));
+            journal.append(new SessionJournal.Entry(sessionId, 1, sides(FaceColor.RED)));
+        }
+
+        try (var journal = new SessionJournal(file)) {
+            var recovered = new ArrayList<>(journal.recover());
+            assertEquals(1, recovered.size());
+
+            var entry = recovered.get(0);
+            assertEquals(sessionId, entry.sessionId());
+            assertEquals(2, entry.revision());
+            assertArrayEquals(sides(FaceColor.RED, FaceColor.BLUE), entry.sides());
+        }
+    }
+
+    @Test
+    void compact() throws IOException {
+        var file = this.tempDir.resolve("sessions.journal");
+        var live = new SessionJournal.Entry(UUID.randomUUID(), 1, sides(FaceColor.WHITE));
+        var merges = 1_000_000;
+
+        try (var journal = new SessionJournal(file, 16)) {
+            journal.recover();
+            journal.start(() -> List.of(live));
+
+            for (var revision = 1; revision <= merges; revision++) {
+                journal.append(new SessionJournal.Entry(live.sessionId(), revision, sides(FaceColor.GREEN)));
+            }
+            journal.append(new SessionJournal.Entry(live.sessionId(), Integer.MAX_VALUE, live.sides()));
+        }
+
+        assertTrue(Files.size(file) < merges * 72L);
+        try (var journal = new SessionJournal(file)) {
+            var recovered = new ArrayList<>(journal.recover());
+            assertEquals(1, recovered.size());
+            assertArrayEquals(live.sides(), recovered.get(0).sides());
+        }
+    }
+
+    @Test
+    void compactKeepsSessionsAddedDuringIteration() throws IOException {
+        var file = this.tempDir.resolve("sessions.journal");
+        var sessions = new ArrayList<SessionJournal.Entry>();
+        // More than the smallest compacted log holds
+        for (var session = 0; session < 20_000; session++) {
+            sessions.add(new SessionJournal.Entry(UUID.randomUUID(), 1, sides(FaceColor.WHITE)));
+        }
+        // Like a concurrent map's view, which can grow after its size is read
+        var live = new AbstractCollection<SessionJournal.Entry>() {
+            @Override
+            public Iterator<SessionJournal.Entry> iterator() {
+                return sessions.iterator();
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+
+        try (var journal = new SessionJournal(file, 16)) {
+            journal.recover();
+            journal.start(() -> live);
+
+            for (var revision = 1; revision <= 32; revision++) {
+                journal.append(new SessionJournal.Entry(sessions.get(0).sessionId(), revision, sides(FaceColor.GREEN)));
+            }
+        }
+
+        try (var journal = new SessionJournal(file)) {
+            assertEquals(sessions.size(), journal.recover().size());
+        }
+    }
+
+    private static Side[] sides(int... colors) {
+        var sides = new Side[6];
+        for (var color : colors) {
+            sides[color] = Side.all(color);
+        }
+        return sides;
+    }
+}
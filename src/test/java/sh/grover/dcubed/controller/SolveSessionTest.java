@@ -0,0 +1,45 @@
+package sh.grover.dcubed.controller;
+
+import org.junit.jupiter.api.Test;
+import sh.grover.dcubed.model.FaceColor;
+import sh.grover.dcubed.model.Side;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolveSessionTest {
+
+    private static final int ROUNDS = 1000;
+
+    @Test
+    void concurrentMerges() {
+        try (var executor = Executors.newFixedThreadPool(6)) {
+            for (var round = 0; round < ROUNDS; round++) {
+                var session = new SolveSession();
+                var start = new CountDownLatch(1);
+
+                for (var color : FaceColor.values()) {
+                    executor.submit(() -> {
+                        var sides = new Side[6];
+                        sides[color] = Side.all(color);
+                        start.await();
+                        return session.mergeSides(sides);
+                    });
+                }
+
+                start.countDown();
+                while (session.revision() < 6) {
+                    Thread.onSpinWait();
+                }
+
+                var snapshot = session.snapshot();
+                assertTrue(snapshot.isComplete());
+                for (var color : FaceColor.values()) {
+                    assertEquals(Side.all(color), snapshot.sides()[color]);
+                }
+            }
+        }
+    }
+}
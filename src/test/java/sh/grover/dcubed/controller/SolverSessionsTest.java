@@ -0,0 +1,92 @@
+package sh.grover.dcubed.controller;
+
+import org.junit.jupiter.api.Test;
+import sh.grover.dcubed.controller.vision.MockColorIdentifier;
+import sh.grover.dcubed.model.FaceColor;
+import sh.grover.dcubed.model.Side;
+import sh.grover.dcubed.model.SolveInstructions;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolverSessionsTest {
+
+    @Test
+    void solveIsSharedBetweenCallers() throws Exception {
+        var sessions = new SolverSessions();
+        var sides = new MockColorIdentifier().estimateColors(null);
+        var sessionId = sessions.newSession(sides).sessionId();
+
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            var results = new Future<?>[16];
+            for (var iResult = 0; iResult < results.length; iResult++) {
+                results[iResult] = executor.submit(() -> sessions.solve(sessionId));
+            }
+
+            for (var result : results) {
+                assertSame(results[0].get(), result.get());
+            }
+        }
+    }
+
+    @Test
+    void solveOnce() {
+        var session = new SolveSession();
+        var solves = new AtomicInteger();
+        session.mergeSides(new MockColorIdentifier().estimateColors(null));
+
+        var first = session.solve(countingSolver(solves), Runnable::run);
+        var second = session.solve(countingSolver(solves), Runnable::run);
+
+        assertSame(first, second);
+        assertEquals(1, solves.get());
+    }
+
+    @Test
+    void solveAgainAfterMerge() {
+        var session = new SolveSession();
+        var solves = new AtomicInteger();
+        session.mergeSides(new MockColorIdentifier().estimateColors(null));
+        session.solve(countingSolver(solves), Runnable::run);
+
+        var sides = new Side[6];
+        sides[FaceColor.WHITE] = Side.all(FaceColor.WHITE);
+        session.mergeSides(sides);
+        session.solve(countingSolver(solves), Runnable::run);
+
+        assertEquals(2, solves.get());
+    }
+
+    @Test
+    void twoPhotosMergeIntoOneSession() {
+        var sides = new MockColorIdentifier().estimateColors(null);
+        var first = new Side[6];
+        var second = new Side[6];
+        for (var sideColor = 0; sideColor < 6; sideColor++) {
+            (sideColor < 3 ? first : second)[sideColor] = sides[sideColor];
+        }
+
+        var sessions = new SolverSessions();
+        var result = sessions.newSession(first, second);
+        assertEquals(6, result.sides().size());
+        assertDoesNotThrow(() -> sessions.solve(result.sessionId()));
+    }
+
+    @Test
+    void incompleteSession() {
+        var sessions = new SolverSessions();
+        var sessionId = sessions.newSession(new Side[6]).sessionId();
+        assertThrows(IllegalArgumentException.class, () -> sessions.solve(sessionId));
+    }
+
+    private static Function<Side[], SolveInstructions> countingSolver(AtomicInteger solves) {
+        return sides -> {
+            solves.incrementAndGet();
+            return new SolveInstructions();
+        };
+    }
+}
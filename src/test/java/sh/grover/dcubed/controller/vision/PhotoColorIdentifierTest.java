@@ -0,0 +1,163 @@
+package sh.grover.dcubed.controller.vision;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.FaceColorExtractor;
+import sh.grover.dcubed.model.vision.PhotoQualityCheck;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Needs OpenCV's native library, unlike most tests here
+ */
+class PhotoColorIdentifierTest {
+
+    private static final int PHOTO_SIZE = 400;
+    private static final int STICKER_SIZE = 30;
+    private static final int FACE_SIZE = STICKER_SIZE * 3;
+
+    private static final int[] WHITE = {230, 230, 230};
+    private static final int[] RED = {30, 20, 200};
+    private static final int[] ORANGE = {0, 120, 255};
+    private static final int[] YELLOW = {20, 220, 230};
+    private static final int[] GREEN = {40, 180, 30};
+    private static final int[] BLUE = {200, 60, 10};
+
+    // BGR of each sticker, row-major. The centers are adjacent sides.
+    private static final int[][] TOP = {
+            RED, GREEN, ORANGE,
+            YELLOW, WHITE, BLUE,
+            GREEN, RED, WHITE,
+    };
+    private static final int[][] LEFT = {
+            BLUE, YELLOW, WHITE,
+            ORANGE, RED, GREEN,
+            WHITE, BLUE, YELLOW,
+    };
+    private static final int[][] RIGHT = {
+            ORANGE, WHITE, RED,
+            GREEN, BLUE, YELLOW,
+            YELLOW, ORANGE, GREEN,
+    };
+
+    /**
+     * Seen from below one corner and off to the side, so no face is a
+     * parallelogram
+     */
+    private static final CubeSegmentation SEGMENTATION = new CubeSegmentation(
+            new Point(210, 40),
+            new Point(60, 95),
+            new Point(55, 285),
+            new Point(200, 370),
+            new Point(335, 290),
+            new Point(350, 100),
+            new Point(205, 180)
+    );
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void homographyMatchesWarpOnPerspectiveFaces() throws Exception {
+        var photo = photo();
+        var expected = new FaceColorExtractor(means(TOP), means(LEFT), means(RIGHT)).result();
+
+        var warped = identifier(PhotoColorIdentifier.SamplingMode.WARP).estimateColors(photo);
+        var mapped = identifier(PhotoColorIdentifier.SamplingMode.HOMOGRAPHY).estimateColors(photo);
+
+        // Compares the classified sides rather than the sticker means, which
+        // differ by a few levels since each mode interpolates differently
+        assertArrayEquals(expected, warped);
+        assertArrayEquals(warped, mapped);
+    }
+
+    private static PhotoColorIdentifier identifier(PhotoColorIdentifier.SamplingMode samplingMode) {
+        // Flat synthetic faces would fail the sharpness check
+        var acceptAll = new PhotoQualityCheck(0, 1, 1);
+        return new PhotoColorIdentifier(image -> SEGMENTATION, samplingMode, acceptAll);
+    }
+
+    /**
+     * Draws each face into a photo by warping it onto its quad, with the same
+     * corners {@code warpedCrop} warps it back from, and encodes the photo
+     * losslessly
+     */
+    private static EncodedImage photo() {
+        var photo = new Mat(PHOTO_SIZE, PHOTO_SIZE, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        var segmentation = SEGMENTATION;
+        drawFace(photo, TOP, segmentation.top(), segmentation.topRight(), segmentation.center(), segmentation.topLeft());
+        drawFace(photo, LEFT, segmentation.topLeft(), segmentation.center(), segmentation.bottom(), segmentation.bottomLeft());
+        drawFace(photo, RIGHT, segmentation.center(), segmentation.topRight(), segmentation.bottomRight(), segmentation.bottom());
+
+        var encoded = new MatOfByte();
+        assertTrue(Imgcodecs.imencode(".png", photo, encoded));
+        var bytes = encoded.toArray();
+        encoded.release();
+        photo.release();
+
+        return new EncodedImage() {
+            @Override
+            public byte[] bytes() {
+                return bytes;
+            }
+
+            @Override
+            public int length() {
+                return bytes.length;
+            }
+
+            @Override
+            public Mat toMat() {
+                return new MatOfByte(bytes);
+            }
+        };
+    }
+
+    private static void drawFace(Mat photo, int[][] stickers, Point tl, Point tr, Point br, Point bl) {
+        var pixels = new byte[FACE_SIZE * FACE_SIZE * 3];
+        for (var y = 0; y < FACE_SIZE; y++) {
+            for (var x = 0; x < FACE_SIZE; x++) {
+                var sticker = stickers[(y / STICKER_SIZE) * 3 + x / STICKER_SIZE];
+                for (var channel = 0; channel < 3; channel++) {
+                    pixels[(y * FACE_SIZE + x) * 3 + channel] = (byte) sticker[channel];
+                }
+            }
+        }
+        var face = new Mat(FACE_SIZE, FACE_SIZE, CvType.CV_8UC3);
+        face.put(0, 0, pixels);
+
+        var far = FACE_SIZE - 1;
+        var faceCorners = new MatOfPoint2f(new Point(0, 0), new Point(far, 0), new Point(far, far), new Point(0, far));
+        var quad = new MatOfPoint2f(tl, tr, br, bl);
+        var transform = Imgproc.getPerspectiveTransform(faceCorners, quad);
+        // Transparent, so only the quad is drawn over
+        Imgproc.warpPerspective(face, photo, transform, photo.size(), Imgproc.INTER_LINEAR, Core.BORDER_TRANSPARENT, new Scalar(0));
+
+        transform.release();
+        quad.release();
+        faceCorners.release();
+        face.release();
+    }
+
+    private static int[] means(int[][] stickers) {
+        var means = new int[27];
+        for (var sticker = 0; sticker < 9; sticker++) {
+            System.arraycopy(stickers[sticker], 0, means, sticker * 3, 3);
+        }
+        return means;
+    }
+}
@@ -0,0 +1,114 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.model.vision.segment.CubeSegmentation;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchingCubeSegmenterTest {
+
+    @Test
+    void fullBatchIsSentTogether() throws Exception {
+        var batchSizes = new CopyOnWriteArrayList<Integer>();
+        IBatchCubeSegmenter delegate = images -> {
+            batchSizes.add(images.size());
+            return segmentById(images);
+        };
+
+        // Long enough that only a full batch could be sent before it passes
+        try (var segmenter = new BatchingCubeSegmenter(delegate, 4, Duration.ofSeconds(30));
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var results = new ArrayList<Future<CubeSegmentation>>();
+            for (var id = 0; id < 4; id++) {
+                var image = new TestImage(id);
+                results.add(executor.submit(() -> segmenter.segment(image)));
+            }
+
+            for (var id = 0; id < 4; id++) {
+                assertEquals(id, results.get(id).get().top().x);
+            }
+        }
+        assertEquals(List.of(4), batchSizes);
+    }
+
+    @Test
+    void partialBatchIsSentAfterDelay() throws Exception {
+        var batchSizes = new CopyOnWriteArrayList<Integer>();
+        IBatchCubeSegmenter delegate = images -> {
+            batchSizes.add(images.size());
+            return segmentById(images);
+        };
+
+        try (var segmenter = new BatchingCubeSegmenter(delegate, 8, Duration.ofMillis(10))) {
+            assertEquals(7, segmenter.segment(new TestImage(7)).top().x);
+        }
+        assertEquals(List.of(1), batchSizes);
+    }
+
+    @Test
+    void cubeNotFound() {
+        IBatchCubeSegmenter delegate = images -> {
+            var results = new ArrayList<CubeSegmentation>();
+            results.add(null);
+            return results;
+        };
+
+        try (var segmenter = new BatchingCubeSegmenter(delegate, 1, Duration.ZERO)) {
+            assertThrows(ColorScanException.class, () -> segmenter.segment(new TestImage(0)));
+        }
+    }
+
+    @Test
+    void failureReachesEveryCaller() {
+        IBatchCubeSegmenter delegate = images -> {
+            throw new IOException("segmenter down");
+        };
+
+        try (var segmenter = new BatchingCubeSegmenter(delegate, 1, Duration.ZERO)) {
+            var error = assertThrows(IOException.class, () -> segmenter.segment(new TestImage(0)));
+            assertEquals("segmenter down", error.getMessage());
+        }
+    }
+
+    /**
+     * @return Segmentations with each image's id as the x of every point
+     */
+    private static List<CubeSegmentation> segmentById(List<? extends EncodedImage> images) {
+        var results = new ArrayList<CubeSegmentation>();
+        for (var image : images) {
+            var point = new Point(image.bytes()[0], 0);
+            results.add(new CubeSegmentation(point, point, point, point, point, point, point));
+        }
+        return results;
+    }
+
+    private record TestImage(int id) implements EncodedImage {
+
+        @Override
+        public byte[] bytes() {
+            return new byte[]{(byte) this.id};
+        }
+
+        @Override
+        public int length() {
+            return 1;
+        }
+
+        @Override
+        public Mat toMat() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
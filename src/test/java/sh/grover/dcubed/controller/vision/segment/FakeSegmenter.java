@@ -0,0 +1,121 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Python segmenter with controllable latency and status.
+ * Every image is segmented to the same points, one by one or in batches.
+ */
+public class FakeSegmenter implements AutoCloseable {
+
+    public static final String POINTS = """
+            {"top":{"x":50,"y":0},"topLeft":{"x":0,"y":25},"bottomLeft":{"x":0,"y":75},"bottom":{"x":50,"y":100},\
+            "bottomRight":{"x":100,"y":75},"topRight":{"x":100,"y":25},"center":{"x":50,"y":50}}""";
+    /**
+     * Room for a burst of connections, so none wait on a retried connect
+     */
+    private static final int CONNECTION_BACKLOG = 1024;
+
+    private final HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long latencyMillis;
+    private final AtomicLong nextLatencyMillis = new AtomicLong(-1);
+    private volatile int status = 200;
+    private final Queue<long[]> queuedResponses = new ConcurrentLinkedQueue<>();
+
+    public FakeSegmenter() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), CONNECTION_BACKLOG);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/segment", this::handle);
+        this.server.createContext("/segment-batch", this::handleBatch);
+        this.server.start();
+    }
+
+    public URI uri() {
+        return URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/");
+    }
+
+    public int requests() {
+        return this.requests.get();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Delays only the next request to arrive, instead of the default latency
+     */
+    public void setNextLatencyMillis(long latencyMillis) {
+        this.nextLatencyMillis.set(latencyMillis);
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    /**
+     * Answers the next request to arrive with this latency and status,
+     * before falling back to the defaults. Queued responses are used in
+     * order of arrival.
+     */
+    public void queueResponse(long latencyMillis, int status) {
+        this.queuedResponses.add(new long[]{latencyMillis, status});
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        this.respond(exchange, POINTS);
+    }
+
+    /**
+     * Answers with the points for every length-prefixed image in the body
+     */
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        var body = ByteBuffer.wrap(exchange.getRequestBody().readAllBytes());
+        var points = new StringJoiner(",", "[", "]");
+        while (body.remaining() >= Integer.BYTES) {
+            var length = body.getInt();
+            body.position(body.position() + length);
+            points.add(POINTS);
+        }
+        this.respond(exchange, points.toString());
+    }
+
+    private void respond(HttpExchange exchange, String okBody) throws IOException {
+        this.requests.incrementAndGet();
+
+        var queued = this.queuedResponses.poll();
+        var latency = queued != null ? queued[0] : this.nextLatencyMillis.getAndSet(-1);
+        var status = queued != null ? (int) queued[1] : this.status;
+        try {
+            Thread.sleep(latency >= 0 ? latency : this.latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        var body = (status == 200 ? okBody : "error").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -0,0 +1,122 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import sh.grover.dcubed.model.vision.ColorScanException;
+import sh.grover.dcubed.model.vision.EncodedImage;
+import sh.grover.dcubed.util.CircuitBreaker;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpCubeSegmenterTest {
+
+    private static final EncodedImage IMAGE = new EncodedImage() {
+        @Override
+        public byte[] bytes() {
+            return new byte[]{1, 2, 3};
+        }
+
+        @Override
+        public int length() {
+            return 3;
+        }
+
+        @Override
+        public Mat toMat() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private FakeSegmenter fake;
+
+    @BeforeEach
+    void startFake() throws IOException {
+        this.fake = new FakeSegmenter();
+    }
+
+    @AfterEach
+    void stopFake() {
+        this.fake.close();
+    }
+
+    @Test
+    void segment() throws Exception {
+        try (var segmenter = this.segmenter(Duration.ofSeconds(5), false, lenientBreaker())) {
+            var segmentation = segmenter.segment(IMAGE);
+            assertEquals(50, segmentation.center().x);
+            assertEquals(0, segmentation.top().y);
+        }
+    }
+
+    @Test
+    void requestTimeout() {
+        this.fake.setLatencyMillis(5000);
+        try (var segmenter = this.segmenter(Duration.ofMillis(200), false, lenientBreaker())) {
+            assertThrows(HttpTimeoutException.class, () -> segmenter.segment(IMAGE));
+        }
+    }
+
+    @Test
+    void hedgeBeatsSlowAttempt() throws Exception {
+        try (var segmenter = this.segmenter(Duration.ofSeconds(30), true, lenientBreaker())) {
+            // Enough fast calls to know what a normal latency is
+            for (var call = 0; call < 30; call++) {
+                segmenter.segment(IMAGE);
+            }
+
+            var requestsBefore = this.fake.requests();
+            this.fake.setNextLatencyMillis(5000);
+            var start = System.nanoTime();
+            segmenter.segment(IMAGE);
+
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+            assertEquals(requestsBefore + 2, this.fake.requests());
+        }
+    }
+
+    @Test
+    void hedgeServerErrorDoesNotWin() throws Exception {
+        try (var segmenter = this.segmenter(Duration.ofSeconds(30), true, lenientBreaker())) {
+            for (var call = 0; call < 30; call++) {
+                segmenter.segment(IMAGE);
+            }
+
+            var requestsBefore = this.fake.requests();
+            this.fake.queueResponse(1000, 200);
+            this.fake.queueResponse(0, 500);
+            var segmentation = segmenter.segment(IMAGE);
+
+            assertEquals(50, segmentation.center().x);
+            assertEquals(requestsBefore + 2, this.fake.requests());
+        }
+    }
+
+    @Test
+    void breakerFailsFast() {
+        this.fake.setStatus(500);
+        var breaker = new CircuitBreaker(4, 4, 0.5, Duration.ofMinutes(1));
+        try (var segmenter = this.segmenter(Duration.ofSeconds(5), false, breaker)) {
+            for (var call = 0; call < 4; call++) {
+                assertThrows(IOException.class, () -> segmenter.segment(IMAGE));
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+            assertThrows(ColorScanException.class, () -> segmenter.segment(IMAGE));
+            assertEquals(4, this.fake.requests());
+        }
+    }
+
+    private HttpCubeSegmenter segmenter(Duration requestTimeout, boolean hedge, CircuitBreaker breaker) {
+        return new HttpCubeSegmenter(this.fake.uri(), Duration.ofSeconds(1), requestTimeout, hedge, breaker);
+    }
+
+    private static CircuitBreaker lenientBreaker() {
+        return new CircuitBreaker(100, 100, 1, Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,143 @@
+package sh.grover.dcubed.controller.vision.segment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import sh.grover.dcubed.model.vision.EncodedImage;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmenterPoolTest {
+
+    private static final EncodedImage IMAGE = new EncodedImage() {
+        @Override
+        public byte[] bytes() {
+            return new byte[]{1};
+        }
+
+        @Override
+        public int length() {
+            return 1;
+        }
+
+        @Override
+        public Mat toMat() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final List<FakeSegmenter> fakes = new ArrayList<>();
+
+    @AfterEach
+    void stopFakes() {
+        for (var fake : this.fakes) {
+            fake.close();
+        }
+    }
+
+    @Test
+    void spreadsAcrossReplicas() throws Exception {
+        var fakes = this.startFakes(3);
+        for (var fake : fakes) {
+            fake.setLatencyMillis(20);
+        }
+
+        try (var pool = pool(fakes, new AtomicLong());
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var results = new ArrayList<Future<?>>();
+            for (var call = 0; call < 60; call++) {
+                results.add(executor.submit(() -> pool.segment(IMAGE)));
+            }
+            for (var result : results) {
+                result.get();
+            }
+        }
+
+        var total = 0;
+        for (var fake : fakes) {
+            assertTrue(fake.requests() > 0);
+            total += fake.requests();
+        }
+        assertEquals(60, total);
+    }
+
+    @Test
+    void avoidsBusyReplica() throws Exception {
+        var fakes = this.startFakes(2);
+        var slow = fakes.get(0);
+        var fast = fakes.get(1);
+        slow.setLatencyMillis(3000);
+
+        try (var pool = pool(fakes, new AtomicLong());
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Ties are broken at random, so keep going until a call is stuck
+            // on the slow replica
+            while (slow.requests() == 0) {
+                var result = executor.submit(() -> pool.segment(IMAGE));
+                while (slow.requests() == 0 && !result.isDone()) {
+                    Thread.sleep(1);
+                }
+            }
+
+            var fastBefore = fast.requests();
+            for (var call = 0; call < 10; call++) {
+                pool.segment(IMAGE);
+            }
+            assertEquals(1, slow.requests());
+            assertEquals(fastBefore + 10, fast.requests());
+        }
+    }
+
+    @Test
+    void ejectsFailingReplica() throws Exception {
+        var fakes = this.startFakes(2);
+        var failing = fakes.get(0);
+        failing.setStatus(500);
+
+        var time = new AtomicLong();
+        try (var pool = pool(fakes, time)) {
+            for (var call = 0; call < 20; call++) {
+                try {
+                    pool.segment(IMAGE);
+                } catch (IOException e) {
+                    // Expected from the failing replica
+                }
+            }
+            assertEquals(2, failing.requests());
+
+            // Back in the pool once the ejection is over
+            time.addAndGet(Duration.ofMinutes(2).toNanos());
+            for (var call = 0; call < 20 && failing.requests() == 2; call++) {
+                try {
+                    pool.segment(IMAGE);
+                } catch (IOException e) {
+                    // Expected from the failing replica
+                }
+            }
+            assertEquals(3, failing.requests());
+        }
+    }
+
+    private List<FakeSegmenter> startFakes(int count) throws IOException {
+        for (var i = 0; i < count; i++) {
+            this.fakes.add(new FakeSegmenter());
+        }
+        return this.fakes;
+    }
+
+    private static SegmenterPool pool(List<FakeSegmenter> fakes, AtomicLong time) {
+        var segmenters = new ArrayList<HttpCubeSegmenter>();
+        for (var fake : fakes) {
+            segmenters.add(new HttpCubeSegmenter(fake.uri()));
+        }
+        return new SegmenterPool(segmenters, 2, Duration.ofMinutes(1), time::get);
+    }
+}
@@ -0,0 +1,89 @@
+package sh.grover.dcubed.model.vision;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoQualityCheckTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    void acceptsSharpWellExposedPhoto() {
+        var check = new PhotoQualityCheck();
+        assertDoesNotThrow(() -> check.check(checkerboard(8, 60, 190), WIDTH, HEIGHT));
+    }
+
+    @Test
+    void rejectsFlatPhotoAsBlurry() {
+        var gray = new byte[WIDTH * HEIGHT];
+        Arrays.fill(gray, (byte) 128);
+
+        var thrown = assertThrows(PhotoQualityException.class, () -> new PhotoQualityCheck().check(gray, WIDTH, HEIGHT));
+        assertEquals(PhotoQualityException.Problem.BLURRY, thrown.problem());
+    }
+
+    @Test
+    void rejectsDarkPhotoAsUnderexposed() {
+        // Sharp, but almost entirely black
+        var thrown = assertThrows(PhotoQualityException.class, () -> new PhotoQualityCheck().check(checkerboard(8, 0, 5), WIDTH, HEIGHT));
+        assertEquals(PhotoQualityException.Problem.UNDEREXPOSED, thrown.problem());
+    }
+
+    @Test
+    void rejectsBrightPhotoAsOverexposed() {
+        // Half of the pixels are white
+        var check = new PhotoQualityCheck(PhotoQualityCheck.DEFAULT_MIN_SHARPNESS, PhotoQualityCheck.DEFAULT_MAX_DARK_FRACTION, 0.4);
+        var thrown = assertThrows(PhotoQualityException.class, () -> check.check(checkerboard(8, 60, 255), WIDTH, HEIGHT));
+        assertEquals(PhotoQualityException.Problem.OVEREXPOSED, thrown.problem());
+    }
+
+    @Test
+    void laplacianVarianceOfFlatImageIsZero() {
+        var gray = new byte[WIDTH * HEIGHT];
+        Arrays.fill(gray, (byte) 200);
+        assertEquals(0, PhotoQualityCheck.laplacianVariance(gray, WIDTH, HEIGHT), 1e-9);
+    }
+
+    @Test
+    void smoothingLowersLaplacianVariance() {
+        var sharp = checkerboard(8, 60, 190);
+        var smoothed = boxBlur(boxBlur(sharp));
+        assertTrue(PhotoQualityCheck.laplacianVariance(smoothed, WIDTH, HEIGHT) < PhotoQualityCheck.laplacianVariance(sharp, WIDTH, HEIGHT) / 4);
+    }
+
+    private static byte[] checkerboard(int cell, int dark, int light) {
+        var gray = new byte[WIDTH * HEIGHT];
+        for (var y = 0; y < HEIGHT; y++) {
+            for (var x = 0; x < WIDTH; x++) {
+                gray[y * WIDTH + x] = (byte) (((x / cell) + (y / cell)) % 2 == 0 ? dark : light);
+            }
+        }
+        return gray;
+    }
+
+    private static byte[] boxBlur(byte[] gray) {
+        var blurred = new byte[gray.length];
+        for (var y = 0; y < HEIGHT; y++) {
+            for (var x = 0; x < WIDTH; x++) {
+                var sum = 0;
+                var count = 0;
+                for (var dy = -2; dy <= 2; dy++) {
+                    for (var dx = -2; dx <= 2; dx++) {
+                        var sx = x + dx;
+                        var sy = y + dy;
+                        if (sx >= 0 && sx < WIDTH && sy >= 0 && sy < HEIGHT) {
+                            sum += gray[sy * WIDTH + sx] & 0xFF;
+                            count++;
+                        }
+                    }
+                }
+                blurred[y * WIDTH + x] = (byte) (sum / count);
+            }
+        }
+        return blurred;
+    }
+}
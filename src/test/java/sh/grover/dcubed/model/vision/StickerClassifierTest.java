@@ -0,0 +1,41 @@
+package sh.grover.dcubed.model.vision;
+
+import org.junit.jupiter.api.Test;
+import sh.grover.dcubed.model.FaceColor;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StickerClassifierTest {
+
+    @Test
+    void classify() {
+        assertEquals(FaceColor.WHITE, StickerClassifier.classify(230, 235, 240));
+        assertEquals(FaceColor.RED, StickerClassifier.classify(30, 20, 200));
+        assertEquals(FaceColor.ORANGE, StickerClassifier.classify(0, 120, 255));
+        assertEquals(FaceColor.YELLOW, StickerClassifier.classify(20, 220, 230));
+        assertEquals(FaceColor.GREEN, StickerClassifier.classify(40, 180, 30));
+        assertEquals(FaceColor.BLUE, StickerClassifier.classify(200, 60, 10));
+        assertEquals(StickerClassifier.COLOR_NOT_FOUND, StickerClassifier.classify(200, 0, 200));
+    }
+
+    @Test
+    void tableMatchesExactClassification() {
+        var random = new Random(42);
+        var mismatches = 0;
+        var samples = 100_000;
+        for (var sample = 0; sample < samples; sample++) {
+            var b = random.nextInt(256);
+            var g = random.nextInt(256);
+            var r = random.nextInt(256);
+            if (StickerClassifier.classify(b, g, r) != StickerClassifier.classifyExact(b, g, r)) {
+                mismatches++;
+            }
+        }
+
+        // Quantizing only matters near the thresholds, mostly for dark colors
+        // where a step of 8 moves the saturation a lot
+        assertTrue(mismatches < samples / 20, mismatches + " mismatches");
+    }
+}
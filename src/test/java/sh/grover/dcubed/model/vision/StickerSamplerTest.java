@@ -0,0 +1,101 @@
+package sh.grover.dcubed.model.vision;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Point;
+import sh.grover.dcubed.model.FaceColor;
+import sh.grover.dcubed.util.Homography;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StickerSamplerTest {
+
+    private static final int STICKER_SIZE = 12;
+    private static final int FACE_SIZE = STICKER_SIZE * 3;
+
+    // BGR of each sticker, row-major
+    private static final int[][] STICKERS = {
+            {230, 230, 230}, {30, 20, 200}, {0, 120, 255},
+            {20, 220, 230}, {40, 180, 30}, {200, 60, 10},
+            {30, 20, 200}, {200, 60, 10}, {40, 180, 30},
+    };
+
+    private static final int[] EXPECTED = {
+            FaceColor.WHITE, FaceColor.RED, FaceColor.ORANGE,
+            FaceColor.YELLOW, FaceColor.GREEN, FaceColor.BLUE,
+            FaceColor.RED, FaceColor.BLUE, FaceColor.GREEN,
+    };
+
+    @Test
+    void meanOfSolidStickers() {
+        var pixels = face(3, false);
+        var colors = new int[27];
+        StickerSampler.sample(pixels, FACE_SIZE, FACE_SIZE, 3, colors);
+
+        for (var sticker = 0; sticker < 9; sticker++) {
+            for (var channel = 0; channel < 3; channel++) {
+                assertEquals(STICKERS[sticker][channel], colors[sticker * 3 + channel]);
+            }
+        }
+    }
+
+    @Test
+    void glareOnCenterPixel() {
+        var pixels = face(4, true);
+        var colors = new int[27];
+        StickerSampler.sample(pixels, FACE_SIZE, FACE_SIZE, 4, colors);
+
+        for (var sticker = 0; sticker < 9; sticker++) {
+            var color = StickerClassifier.classify(colors[sticker * 3], colors[sticker * 3 + 1], colors[sticker * 3 + 2]);
+            assertEquals(EXPECTED[sticker], color, "sticker " + sticker);
+        }
+    }
+
+    @Test
+    void mappedMatchesWarped() {
+        var face = face(3, true);
+
+        // The face sits unrotated in a larger image, so the mapping is a
+        // translation and the warp would reproduce the face exactly
+        var offsetX = 3;
+        var offsetY = 5;
+        var sourceWidth = FACE_SIZE + 8;
+        var sourceHeight = FACE_SIZE + 9;
+        var source = new byte[sourceWidth * sourceHeight * 3];
+        for (var y = 0; y < FACE_SIZE; y++) {
+            System.arraycopy(face, y * FACE_SIZE * 3, source, ((y + offsetY) * sourceWidth + offsetX) * 3, FACE_SIZE * 3);
+        }
+
+        var far = FACE_SIZE - 1;
+        var homography = Homography.fromRectangle(
+                FACE_SIZE, FACE_SIZE,
+                new Point(offsetX, offsetY),
+                new Point(offsetX + far, offsetY),
+                new Point(offsetX + far, offsetY + far),
+                new Point(offsetX, offsetY + far)
+        );
+
+        var warped = new int[27];
+        StickerSampler.sample(face, FACE_SIZE, FACE_SIZE, 3, warped);
+        var mapped = new int[27];
+        StickerSampler.sampleMapped(source, sourceWidth, sourceHeight, 3, homography, FACE_SIZE, FACE_SIZE, mapped);
+        assertArrayEquals(warped, mapped);
+    }
+
+    /**
+     * @param glare Whether to make the center pixel of every sticker white,
+     *              which is all a single-pixel sample would see
+     */
+    private static byte[] face(int channels, boolean glare) {
+        var pixels = new byte[FACE_SIZE * FACE_SIZE * channels];
+        for (var y = 0; y < FACE_SIZE; y++) {
+            for (var x = 0; x < FACE_SIZE; x++) {
+                var sticker = STICKERS[(y / STICKER_SIZE) * 3 + x / STICKER_SIZE];
+                var center = x % STICKER_SIZE == STICKER_SIZE / 2 && y % STICKER_SIZE == STICKER_SIZE / 2;
+                for (var channel = 0; channel < 3; channel++) {
+                    pixels[(y * FACE_SIZE + x) * channels + channel] = (byte) (glare && center ? 255 : sticker[channel]);
+                }
+            }
+        }
+        return pixels;
+    }
+}
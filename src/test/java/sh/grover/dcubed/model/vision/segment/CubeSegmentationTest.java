@@ -0,0 +1,125 @@
+package sh.grover.dcubed.model.vision.segment;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Point;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CubeSegmentationTest {
+
+    // Outline of a cube seen corner-on, starting from the top and going left
+    private static final Point[] OUTLINE = {
+            new Point(50, 0),
+            new Point(0, 25),
+            new Point(0, 75),
+            new Point(50, 100),
+            new Point(100, 75),
+            new Point(100, 25),
+    };
+
+    @Test
+    void fromOutline() {
+        var segmentation = CubeSegmentation.fromOutline(rotate(OUTLINE, 2));
+        assertPoint(50, 0, segmentation.top());
+        assertPoint(0, 25, segmentation.topLeft());
+        assertPoint(0, 75, segmentation.bottomLeft());
+        assertPoint(50, 100, segmentation.bottom());
+        assertPoint(100, 75, segmentation.bottomRight());
+        assertPoint(100, 25, segmentation.topRight());
+        assertPoint(50, 50, segmentation.center());
+    }
+
+    @Test
+    void fromOutlineReversed() {
+        var reversed = new Point[6];
+        for (var i = 0; i < 6; i++) {
+            reversed[i] = OUTLINE[5 - i];
+        }
+
+        var segmentation = CubeSegmentation.fromOutline(reversed);
+        assertPoint(0, 25, segmentation.topLeft());
+        assertPoint(100, 25, segmentation.topRight());
+        assertPoint(50, 50, segmentation.center());
+    }
+
+    @Test
+    void fromOutlineWrongSize() {
+        assertThrows(IllegalArgumentException.class, () -> CubeSegmentation.fromOutline(new Point[5]));
+    }
+
+    @Test
+    void plausible() {
+        var segmentation = CubeSegmentation.fromOutline(OUTLINE);
+        assertTrue(segmentation.isPlausible(100, 100));
+        assertTrue(segmentation.isPlausible(400, 300));
+    }
+
+    @Test
+    void implausibleOutsideImage() {
+        assertFalse(CubeSegmentation.fromOutline(OUTLINE).isPlausible(80, 100));
+    }
+
+    @Test
+    void implausibleTooSmall() {
+        // Covers 0.75% of the image
+        assertFalse(CubeSegmentation.fromOutline(OUTLINE).isPlausible(1000, 1000));
+    }
+
+    @Test
+    void implausibleOutOfOrder() {
+        var segmentation = CubeSegmentation.fromOutline(OUTLINE);
+        var swapped = new CubeSegmentation(
+                segmentation.top(),
+                segmentation.bottomLeft(),
+                segmentation.topLeft(),
+                segmentation.bottom(),
+                segmentation.bottomRight(),
+                segmentation.topRight(),
+                segmentation.center()
+        );
+        assertFalse(swapped.isPlausible(100, 100));
+    }
+
+    @Test
+    void implausibleCenterOutsideOutline() {
+        var segmentation = CubeSegmentation.fromOutline(OUTLINE);
+        var moved = new CubeSegmentation(
+                segmentation.top(),
+                segmentation.topLeft(),
+                segmentation.bottomLeft(),
+                segmentation.bottom(),
+                segmentation.bottomRight(),
+                segmentation.topRight(),
+                new Point(2, 10)
+        );
+        assertFalse(moved.isPlausible(100, 100));
+    }
+
+    @Test
+    void implausibleNaN() {
+        var segmentation = CubeSegmentation.fromOutline(OUTLINE);
+        var broken = new CubeSegmentation(
+                new Point(Double.NaN, 0),
+                segmentation.topLeft(),
+                segmentation.bottomLeft(),
+                segmentation.bottom(),
+                segmentation.bottomRight(),
+                segmentation.topRight(),
+                segmentation.center()
+        );
+        assertFalse(broken.isPlausible(100, 100));
+    }
+
+    private static Point[] rotate(Point[] points, int by) {
+        var rotated = new Point[points.length];
+        for (var i = 0; i < points.length; i++) {
+            rotated[i] = points[(i + by) % points.length];
+        }
+        return rotated;
+    }
+
+    private static void assertPoint(double x, double y, Point point) {
+        assertEquals(x, point.x, 1e-9);
+        assertEquals(y, point.y, 1e-9);
+    }
+}
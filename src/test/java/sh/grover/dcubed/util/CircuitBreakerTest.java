@@ -0,0 +1,80 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static final long SECONDS = 1_000_000_000;
+
+    @Test
+    void opensAtFailureRate() {
+        var breaker = new CircuitBreaker(4, 4, 0.5, Duration.ofSeconds(10), new AtomicLong()::get);
+
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void oldOutcomesLeaveWindow() {
+        var breaker = new CircuitBreaker(4, 4, 0.75, Duration.ofSeconds(10), new AtomicLong()::get);
+
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+        // Pushes out the first failure, then the successes
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void halfOpenProbe() {
+        var time = new AtomicLong();
+        var breaker = new CircuitBreaker(2, 1, 0.5, Duration.ofSeconds(10), time::get);
+        breaker.recordFailure();
+        assertFalse(breaker.tryAcquire());
+
+        time.addAndGet(10 * SECONDS);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        // Only one probe at a time
+        assertFalse(breaker.tryAcquire());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+
+        time.addAndGet(10 * SECONDS);
+        assertTrue(breaker.tryAcquire());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void cancelledProbe() {
+        var time = new AtomicLong();
+        var breaker = new CircuitBreaker(2, 1, 0.5, Duration.ofSeconds(10), time::get);
+        breaker.recordFailure();
+
+        time.addAndGet(10 * SECONDS);
+        assertTrue(breaker.tryAcquire());
+        breaker.recordCancelled();
+        assertTrue(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,134 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import sh.grover.dcubed.model.vision.EncodedImage;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentCacheTest {
+
+    @Test
+    void identicalContentHits() {
+        var cache = new ContentCache<String>("test", 4 * ContentCache.ENTRY_BYTES, String::length);
+        assertNull(cache.get(image("photo")));
+
+        cache.put(image("photo"), "sides");
+        assertEquals("sides", cache.get(image("photo")));
+        assertNull(cache.get(image("other photo")));
+    }
+
+    @Test
+    void onlyComparesImageBytes() {
+        var cache = new ContentCache<String>("test", 4 * ContentCache.ENTRY_BYTES, String::length);
+        cache.put(image("photo"), "sides");
+
+        // Same image in a larger buffer, as pooled uploads are
+        var bytes = "photo and leftovers".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("sides", cache.get(image(bytes, 5)));
+    }
+
+    @Test
+    void hashCollisionMisses() {
+        var cache = new ContentCache<String>("test", 4 * ContentCache.ENTRY_BYTES, String::length);
+        // Same length as well, so only the content tells them apart
+        cache.put(collidingImage("photo"), "sides");
+
+        assertEquals("sides", cache.get(collidingImage("photo")));
+        assertNull(cache.get(collidingImage("other")));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        var cache = new ContentCache<String>("test", 2 * (ContentCache.ENTRY_BYTES + 1), String::length);
+        cache.put(image("a"), "a");
+        cache.put(image("b"), "b");
+        cache.get(image("a"));
+        cache.put(image("c"), "c");
+
+        assertEquals(2, cache.size());
+        assertEquals("a", cache.get(image("a")));
+        assertNull(cache.get(image("b")));
+        assertEquals("c", cache.get(image("c")));
+    }
+
+    @Test
+    void evictsByBytes() {
+        var cache = new ContentCache<String>("test", 3 * ContentCache.ENTRY_BYTES + 100, String::length);
+        cache.put(image("a"), "a");
+        cache.put(image("b"), "b");
+        cache.put(image("c"), "c".repeat(99));
+
+        // The large result took the room of the eldest small one
+        assertEquals(2, cache.size());
+        assertNull(cache.get(image("a")));
+        assertEquals("b", cache.get(image("b")));
+        assertEquals(2 * ContentCache.ENTRY_BYTES + 100, cache.bytes());
+
+        cache.put(image("c"), "c");
+        assertEquals(2 * ContentCache.ENTRY_BYTES + 2, cache.bytes());
+    }
+
+    @Test
+    void skipsResultsLargerThanCapacity() {
+        var cache = new ContentCache<String>("test", ContentCache.ENTRY_BYTES + 4, String::length);
+        cache.put(image("a"), "sides");
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    private static EncodedImage image(String content) {
+        var bytes = content.getBytes(StandardCharsets.US_ASCII);
+        return image(bytes, bytes.length);
+    }
+
+    /**
+     * @return An image whose hash is the same whatever its content
+     */
+    private static EncodedImage collidingImage(String content) {
+        var image = image(content);
+        return new EncodedImage() {
+            @Override
+            public byte[] bytes() {
+                return image.bytes();
+            }
+
+            @Override
+            public int length() {
+                return image.length();
+            }
+
+            @Override
+            public Mat toMat() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long contentHash() {
+                return 42;
+            }
+        };
+    }
+
+    private static EncodedImage image(byte[] bytes, int length) {
+        return new EncodedImage() {
+            @Override
+            public byte[] bytes() {
+                return bytes;
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public Mat toMat() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import sh.grover.dcubed.controller.vision.segment.FakeSegmenter;
+import sh.grover.dcubed.controller.vision.segment.HttpCubeSegmenter;
+import sh.grover.dcubed.controller.vision.segment.ICubeSegmenter;
+import sh.grover.dcubed.model.vision.EncodedImage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares a burst of scans handled on a fixed platform thread pool, as
+ * Jetty's is, with the same burst on virtual threads bounded by
+ * {@link CpuLimiter}. Each scan does some CPU work, calls a segmenter that
+ * takes a while to answer, then does some more CPU work.
+ */
+class CpuLimiterLoadTest {
+
+    private static final int SCANS = 128;
+    /**
+     * Much smaller than the burst, as Jetty's pool is under a real one
+     */
+    private static final int PLATFORM_THREADS = 8;
+    private static final long SEGMENTER_LATENCY_MILLIS = 200;
+    /**
+     * Stands in for decoding before the segmenter call, then for extracting
+     * colors after it
+     */
+    private static final long CPU_WORK_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private static final EncodedImage IMAGE = new EncodedImage() {
+        @Override
+        public byte[] bytes() {
+            return new byte[]{1, 2, 3};
+        }
+
+        @Override
+        public int length() {
+            return 3;
+        }
+
+        @Override
+        public Mat toMat() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Test
+    void virtualThreadsOutperformPlatformPool() throws Exception {
+        var breaker = new CircuitBreaker(100, 100, 1, Duration.ofSeconds(1));
+        try (var fake = new FakeSegmenter();
+             var segmenter = new HttpCubeSegmenter(fake.uri(), Duration.ofSeconds(5), Duration.ofSeconds(30), false, breaker)) {
+            fake.setLatencyMillis(SEGMENTER_LATENCY_MILLIS);
+
+            // Opens the connections both runs reuse
+            burst(Executors.newVirtualThreadPerTaskExecutor(), segmenter);
+
+            var platform = burst(Executors.newFixedThreadPool(PLATFORM_THREADS), segmenter);
+            var virtual = burst(Executors.newVirtualThreadPerTaskExecutor(), segmenter);
+            System.out.printf("platform pool: %.0f scans/s, p95 %d ms%n", platform.scansPerSecond(), platform.p95Millis());
+            System.out.printf("virtual threads: %.0f scans/s, p95 %d ms%n", virtual.scansPerSecond(), virtual.p95Millis());
+
+            // The pool can only wait on as many segmenter calls as it has
+            // threads, virtual threads wait on all of them at once
+            assertTrue(virtual.scansPerSecond() > 2 * platform.scansPerSecond());
+            assertTrue(virtual.p95Millis() < platform.p95Millis());
+        }
+    }
+
+    /**
+     * Submits every scan at once
+     */
+    private static Result burst(ExecutorService executor, ICubeSegmenter segmenter) throws Exception {
+        try (executor) {
+            var start = System.nanoTime();
+            var scans = new ArrayList<Future<Long>>(SCANS);
+            for (var scan = 0; scan < SCANS; scan++) {
+                scans.add(executor.submit(() -> {
+                    scan(segmenter);
+                    // Includes the time spent queued for a thread
+                    return System.nanoTime() - start;
+                }));
+            }
+
+            var latencies = new long[SCANS];
+            for (var scan = 0; scan < SCANS; scan++) {
+                latencies[scan] = scans.get(scan).get();
+            }
+            var elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            return new Result(elapsed, latencies[(int) (SCANS * 0.95) - 1]);
+        }
+    }
+
+    private static void scan(ICubeSegmenter segmenter) throws Exception {
+        cpuWork();
+        segmenter.segment(IMAGE);
+        cpuWork();
+    }
+
+    private static void cpuWork() {
+        CpuLimiter.acquire();
+        try {
+            var end = System.nanoTime() + CPU_WORK_NANOS;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        } finally {
+            CpuLimiter.release();
+        }
+    }
+
+    private record Result(long elapsedNanos, long p95Nanos) {
+
+        double scansPerSecond() {
+            return SCANS / (this.elapsedNanos / 1e9);
+        }
+
+        long p95Millis() {
+            return TimeUnit.NANOSECONDS.toMillis(this.p95Nanos);
+        }
+    }
+}
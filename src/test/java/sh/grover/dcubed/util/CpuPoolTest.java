@@ -0,0 +1,58 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CpuPoolTest {
+
+    @Test
+    void resultsKeepTaskOrder() {
+        var results = CpuPool.invokeAll(List.<Supplier<Integer>>of(() -> 1, () -> 2, () -> 3));
+        assertEquals(List.of(1, 2, 3), results);
+    }
+
+    @Test
+    void tasksRunConcurrently() {
+        // Each task waits for the other, so this only succeeds if they
+        // overlap. Two tasks, since even a single core gets one pool thread.
+        var started = new CountDownLatch(2);
+        Supplier<Boolean> task = () -> {
+            started.countDown();
+            try {
+                return started.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        assertEquals(List.of(true, true), CpuPool.invokeAll(List.of(task, task)));
+    }
+
+    @Test
+    void waitsForEveryTaskBeforeThrowing() {
+        var slowFinished = new AtomicBoolean();
+        Supplier<String> slow = () -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            slowFinished.set(true);
+            return "slow";
+        };
+        Supplier<String> failing = () -> {
+            throw new IllegalArgumentException("no connection");
+        };
+
+        var thrown = assertThrows(IllegalArgumentException.class, () -> CpuPool.invokeAll(List.of(slow, failing)));
+        assertEquals("no connection", thrown.getMessage());
+        assertTrue(slowFinished.get());
+    }
+}
@@ -0,0 +1,70 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DebugCaptureTest {
+
+    @AfterEach
+    void unbind() {
+        DebugCapture.end();
+    }
+
+    @Test
+    void zeroPercentCapturesNothing() {
+        var capture = new DebugCapture(0, 4);
+        for (var request = 0; request < 100; request++) {
+            assertFalse(capture.begin("request-" + request));
+            assertFalse(DebugCapture.isCapturing());
+        }
+        assertTrue(capture.requestIds().isEmpty());
+    }
+
+    @Test
+    void hundredPercentCapturesEverything() {
+        var capture = new DebugCapture(100, 4);
+        assertTrue(capture.begin("a"));
+        assertTrue(DebugCapture.isCapturing());
+        assertNotNull(capture.images("a"));
+
+        DebugCapture.end();
+        assertFalse(DebugCapture.isCapturing());
+    }
+
+    @Test
+    void propagatesToOtherThreads() throws Exception {
+        var capture = new DebugCapture(100, 4);
+        capture.begin("a");
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(DebugCapture.propagate(DebugCapture::isCapturing)).get());
+            DebugCapture.end();
+            assertFalse(executor.submit(DebugCapture.propagate(DebugCapture::isCapturing)).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void oldestScanIsDropped() {
+        var capture = new DebugCapture(100, 2);
+        capture.begin("a");
+        capture.begin("b");
+        capture.begin("c");
+
+        assertEquals(List.of("b", "c"), capture.requestIds());
+        assertNull(capture.images("a"));
+    }
+
+    @Test
+    void rejectsOutOfRangePercentage() {
+        assertThrows(IllegalArgumentException.class, () -> new DebugCapture(101, 4));
+        assertThrows(IllegalArgumentException.class, () -> new DebugCapture(-1, 4));
+    }
+}
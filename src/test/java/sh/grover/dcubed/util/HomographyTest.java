@@ -0,0 +1,44 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Point;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HomographyTest {
+
+    @Test
+    void mapsCorners() {
+        var tl = new Point(12, 5);
+        var tr = new Point(90, 20);
+        var br = new Point(80, 110);
+        var bl = new Point(3, 70);
+        var homography = Homography.fromRectangle(60, 40, tl, tr, br, bl);
+
+        assertMaps(tl, homography, 0, 0);
+        assertMaps(tr, homography, 59, 0);
+        assertMaps(br, homography, 59, 39);
+        assertMaps(bl, homography, 0, 39);
+    }
+
+    @Test
+    void keepsStraightLinesStraight() {
+        var homography = Homography.fromRectangle(10, 10, new Point(0, 0), new Point(20, 2), new Point(18, 25), new Point(1, 15));
+
+        // Points along the top edge stay on the line through tl and tr
+        var x = homography.mapX(4.5, 0);
+        var y = homography.mapY(4.5, 0);
+        assertEquals(2.0 / 20 * x, y, 1e-9);
+    }
+
+    @Test
+    void parallelogram() {
+        var homography = Homography.fromRectangle(11, 11, new Point(0, 0), new Point(10, 0), new Point(15, 10), new Point(5, 10));
+        assertMaps(new Point(7.5, 5), homography, 5, 5);
+    }
+
+    private static void assertMaps(Point expected, Homography homography, double x, double y) {
+        assertEquals(expected.x, homography.mapX(x, y), 1e-9);
+        assertEquals(expected.y, homography.mapY(x, y), 1e-9);
+    }
+}
@@ -0,0 +1,59 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageHeadersTest {
+
+    @Test
+    void jpeg() {
+        var jpeg = bytes(
+                0xFF, 0xD8,
+                // APP0 with 2 bytes of payload
+                0xFF, 0xE0, 0x00, 0x04, 0x4A, 0x46,
+                // Fill byte before the next marker
+                0xFF,
+                // SOF0: length, precision, height 3024, width 4032
+                0xFF, 0xC0, 0x00, 0x11, 0x08, 0x0B, 0xD0, 0x0F, 0xC0
+        );
+        assertEquals(new ImageHeaders.Dimensions(4032, 3024), ImageHeaders.dimensions(jpeg, jpeg.length));
+    }
+
+    @Test
+    void jpegSkipsHuffmanTable() {
+        var jpeg = bytes(
+                0xFF, 0xD8,
+                0xFF, 0xC4, 0x00, 0x03, 0x00,
+                0xFF, 0xC2, 0x00, 0x11, 0x08, 0x00, 0x10, 0x00, 0x20
+        );
+        assertEquals(new ImageHeaders.Dimensions(32, 16), ImageHeaders.dimensions(jpeg, jpeg.length));
+    }
+
+    @Test
+    void png() {
+        var png = bytes(
+                0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n',
+                0x00, 0x00, 0x00, 0x0D, 'I', 'H', 'D', 'R',
+                0x00, 0x00, 0x04, 0x00, 0x00, 0x00, 0x03, 0x00
+        );
+        assertEquals(new ImageHeaders.Dimensions(1024, 768), ImageHeaders.dimensions(png, png.length));
+    }
+
+    @Test
+    void unknown() {
+        var data = bytes('G', 'I', 'F', '8', '9', 'a');
+        assertNull(ImageHeaders.dimensions(data, data.length));
+
+        var truncated = bytes(0xFF, 0xD8, 0xFF, 0xC0, 0x00, 0x11, 0x08);
+        assertNull(ImageHeaders.dimensions(truncated, truncated.length));
+    }
+
+    private static byte[] bytes(int... values) {
+        var bytes = new byte[values.length];
+        for (var index = 0; index < values.length; index++) {
+            bytes[index] = (byte) values[index];
+        }
+        return bytes;
+    }
+}
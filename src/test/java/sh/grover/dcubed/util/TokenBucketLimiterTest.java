@@ -0,0 +1,77 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketLimiterTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void burstThenRefill() {
+        var time = new AtomicLong();
+        var limiter = new TokenBucketLimiter(3, 2, time::get);
+
+        for (var request = 0; request < 3; request++) {
+            assertTrue(limiter.tryAcquire("client"));
+        }
+        assertFalse(limiter.tryAcquire("client"));
+        assertTrue(limiter.tryAcquire("other client"));
+
+        time.addAndGet(500 * MILLIS);
+        assertTrue(limiter.tryAcquire("client"));
+        assertFalse(limiter.tryAcquire("client"));
+    }
+
+    @Test
+    void refillsUnderFrequentRequests() {
+        var time = new AtomicLong();
+        var limiter = new TokenBucketLimiter(1, 1, time::get);
+        assertTrue(limiter.tryAcquire("client"));
+
+        var acquired = 0;
+        for (var millis = 1; millis <= 10_000; millis++) {
+            time.set(millis * MILLIS);
+            if (limiter.tryAcquire("client")) {
+                acquired++;
+            }
+        }
+        assertEquals(10, acquired);
+    }
+
+    @Test
+    void takesAllTokensOrNone() {
+        var time = new AtomicLong();
+        var limiter = new TokenBucketLimiter(3, 1, time::get);
+
+        assertTrue(limiter.tryAcquire("client", 2));
+        assertFalse(limiter.tryAcquire("client", 2));
+        assertTrue(limiter.tryAcquire("client"));
+        assertFalse(limiter.tryAcquire("client"));
+    }
+
+    @Test
+    void refundedTokensCanBeTakenAgain() {
+        var time = new AtomicLong();
+        var limiter = new TokenBucketLimiter(2, 1, time::get);
+
+        assertTrue(limiter.tryAcquire("client", 2));
+        limiter.refund("client", 1);
+        assertTrue(limiter.tryAcquire("client"));
+        assertFalse(limiter.tryAcquire("client"));
+
+        // Refunds don't grow the bucket past its burst
+        limiter.refund("client", 5);
+        assertTrue(limiter.tryAcquire("client", 2));
+        assertFalse(limiter.tryAcquire("client"));
+    }
+
+    @Test
+    void retryAfter() {
+        assertEquals(2, new TokenBucketLimiter(1, 0.5).retryAfterSeconds());
+        assertEquals(1, new TokenBucketLimiter(1, 10).retryAfterSeconds());
+    }
+}
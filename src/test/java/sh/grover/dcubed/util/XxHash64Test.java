@@ -0,0 +1,41 @@
+package sh.grover.dcubed.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class XxHash64Test {
+
+    @Test
+    void referenceVectors() {
+        assertEquals(0xEF46DB3751D8E999L, hash(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        // Long enough for the 32 byte stripes
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    void onlyHashesGivenRange() {
+        var padded = "xxabcxx".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(hash("abc"), XxHash64.hash(padded, 2, 3, 0));
+    }
+
+    @Test
+    void everyByteMatters() {
+        var data = new byte[100];
+        var original = XxHash64.hash(data, 0, data.length, 0);
+        for (var index = 0; index < data.length; index++) {
+            data[index] = 1;
+            assertNotEquals(original, XxHash64.hash(data, 0, data.length, 0));
+            data[index] = 0;
+        }
+    }
+
+    private static long hash(String text) {
+        var bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return XxHash64.hash(bytes, 0, bytes.length, 0);
+    }
+}
@@ -0,0 +1,42 @@
+package sh.grover.dcubed.util.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketBounds() {
+        var previousBucket = -1;
+        for (var value = 0L; value < 1 << 20; value++) {
+            var bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket == previousBucket || bucket == previousBucket + 1);
+            assertTrue(value < LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value >= LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+            previousBucket = bucket;
+        }
+    }
+
+    @Test
+    void write() {
+        var histogram = new LatencyHistogram();
+        histogram.record(200_000); // 0.2ms
+        histogram.record(20_000_000); // 20ms
+        histogram.record(20_000_000_000L); // 20s
+
+        var out = new StringBuilder();
+        histogram.write(out, "test", "stage=\"a\"");
+        var text = out.toString();
+
+        assertTrue(text.contains("test_bucket{stage=\"a\",le=\"0.0001\"} 0\n"));
+        assertTrue(text.contains("test_bucket{stage=\"a\",le=\"0.00025\"} 1\n"));
+        assertTrue(text.contains("test_bucket{stage=\"a\",le=\"0.025\"} 2\n"));
+        assertTrue(text.contains("test_bucket{stage=\"a\",le=\"10\"} 2\n"));
+        assertTrue(text.contains("test_bucket{stage=\"a\",le=\"30\"} 3\n"));
+        assertTrue(text.contains("test_bucket{stage=\"a\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("test_count{stage=\"a\"} 3\n"));
+    }
+}